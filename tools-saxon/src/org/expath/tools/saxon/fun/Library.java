@@ -17,6 +17,7 @@ import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.SequenceType;
 import org.expath.tools.ToolsException;
+import org.expath.tools.saxon.model.ElementPath;
 
 /**
  * A library of extension functions for Saxon.
@@ -34,6 +35,7 @@ public abstract class Library
         myPrefix = prefix;
         myDefs = new HashMap<StructuredQName, Definition>();
         myErrors = new Errors(this);
+        myPaths = new HashMap<String, ElementPath>();
     }
 
     public String getNamespace()
@@ -105,6 +107,27 @@ public abstract class Library
         myDefs.put(name, def);
     }
 
+    /**
+     * Return the compiled path, compiling it the first time only.
+     *
+     * The prefix of the library is bound to its namespace in the path, e.g.
+     * {@code "http:header/@name"} for a library with the prefix "http".
+     */
+    public ElementPath path(String path)
+            throws ToolsException
+    {
+        synchronized ( myPaths ) {
+            ElementPath compiled = myPaths.get(path);
+            if ( compiled == null ) {
+                Map<String, String> namespaces = new HashMap<String, String>();
+                namespaces.put(myPrefix, myNs);
+                compiled = ElementPath.compile(path, namespaces);
+                myPaths.put(path, compiled);
+            }
+            return compiled;
+        }
+    }
+
     public XPathException error(String code, String msg)
     {
         return myErrors.make(code, msg);
@@ -119,6 +142,7 @@ public abstract class Library
     private final String myPrefix;
     private final Map<StructuredQName, Definition> myDefs;
     private final Errors myErrors;
+    private final Map<String, ElementPath> myPaths;
 }
 
 
@@ -17,6 +17,7 @@ import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.Sequence;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.LookaheadIterator;
 import net.sf.saxon.type.Type;
 import net.sf.saxon.value.Base64BinaryValue;
 import net.sf.saxon.value.BooleanValue;
@@ -24,6 +25,8 @@ import net.sf.saxon.value.IntegerValue;
 import net.sf.saxon.value.StringValue;
 import org.expath.tools.ToolsException;
 import org.expath.tools.model.Element;
+import org.expath.tools.saxon.model.ElementBinder;
+import org.expath.tools.saxon.model.ElementShape;
 import org.expath.tools.saxon.model.SaxonElement;
 import org.expath.tools.saxon.model.SaxonSequence;
 
@@ -275,6 +278,67 @@ public class Parameters
         return elem;
     }
 
+    /**
+     * Return the pos-th parameter, checking it is an element node, as well as its shape.
+     *
+     * If optional is false and the parameter is the empty sequence, an
+     * {@code XPathException} is thrown.  As well as if there is more than
+     * one item, or if the param is not an element node, or if the element
+     * does not respect {@code shape}.
+     *
+     * @param pos The position of the parameter to analyze, 0-based.
+     * @param optional Can the parameter be the empty sequence?
+     * @param ctxt The context in which this extension call occurs.
+     * @param shape The attributes and children allowed on the element.
+     * @throws XPathException If there is not such parameter or if it is not a valid element.
+     * @return The parameter as an element.
+     */
+    public Element asElement(int pos, boolean optional, XPathContext ctxt, ElementShape shape)
+            throws XPathException
+    {
+        SaxonElement elem = (SaxonElement) asElement(pos, optional, ctxt);
+        if ( elem == null ) {
+            return null;
+        }
+        try {
+            shape.validate(elem);
+        }
+        catch ( ToolsException ex ) {
+            throw new XPathException("The param $" + myFormals[pos].name() + " is not valid: " + ex.getMessage(), ex);
+        }
+        return elem;
+    }
+
+    /**
+     * Return the pos-th parameter, checking it is an element node, decoded by a binder.
+     *
+     * If optional is false and the parameter is the empty sequence, an
+     * {@code XPathException} is thrown.  As well as if there is more than
+     * one item, or if the param is not an element node, or if the binder
+     * cannot decode the element.
+     *
+     * @param pos The position of the parameter to analyze, 0-based.
+     * @param optional Can the parameter be the empty sequence?
+     * @param ctxt The context in which this extension call occurs.
+     * @param binder The binder to decode the element with.
+     * @throws XPathException If there is not such parameter or if it cannot be decoded.
+     * @return The object decoded from the parameter.
+     */
+    public <T> T asObject(int pos, boolean optional, XPathContext ctxt, ElementBinder<T> binder)
+            throws XPathException
+    {
+        SaxonElement elem = (SaxonElement) asElement(pos, optional, ctxt);
+        if ( elem == null ) {
+            return null;
+        }
+        try {
+            return binder.bind(elem);
+        }
+        catch ( ToolsException ex ) {
+            throw new XPathException("The param $" + myFormals[pos].name() + " cannot be decoded: " + ex.getMessage(), ex);
+        }
+    }
+
     /**
      * Return the pos-th parameter, as a sequence.
      * 
@@ -289,9 +353,29 @@ public class Parameters
      */
     public org.expath.tools.model.Sequence asSequence(int pos, boolean optional, XPathContext ctxt)
             throws XPathException
+    {
+        return asSequence(pos, optional, ctxt, false);
+    }
+
+    /**
+     * Return the pos-th parameter, as a sequence, optionally memoizing.
+     * 
+     * If optional is false and the parameter is the empty sequence, an
+     * {@code XPathException} is thrown.
+     * 
+     * @param pos The position of the parameter to analyze, 0-based.
+     * @param optional Can the parameter be the empty sequence?
+     * @param ctxt The context in which this extension call occurs.
+     * @param memoize Whether each item must be evaluated at most once (see
+     *      {@link SaxonSequence}).
+     * @throws XPathException If there is not such parameter or if it is not an element.
+     * @return The parameter as a sequence (never return null).
+     */
+    public org.expath.tools.model.Sequence asSequence(int pos, boolean optional, XPathContext ctxt, boolean memoize)
+            throws XPathException
     {
         SequenceIterator it = initiate(pos, optional);
-        return new SaxonSequence(it, ctxt);
+        return new SaxonSequence(it, ctxt, memoize);
     }
 
     /**
@@ -339,8 +423,18 @@ public class Parameters
         }
         Sequence param = myParams[pos];
         SequenceIterator it = param.iterate();
-        SequenceIterator res = it.getAnother();
-        if ( it.next() == null ) {
+        boolean empty;
+        SequenceIterator res;
+        if ( (it.getProperties() & SequenceIterator.LOOKAHEAD) != 0 ) {
+            // test emptiness without evaluating the first item twice
+            empty = ! ((LookaheadIterator) it).hasNext();
+            res = it;
+        }
+        else {
+            res = it.getAnother();
+            empty = it.next() == null;
+        }
+        if ( empty ) {
             if ( optional ) {
                 return null;
             }
@@ -0,0 +1,87 @@
+/****************************************************************************/
+/*  File:       AttributeCursor.java                                        */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+/**
+ * A cursor on the attributes of an element, reusing one single {@link SaxonAttribute}.
+ *
+ * The attribute returned by {@link #current()} is always the same object,
+ * moved to the next node by each call to {@link #next()}.  So it must not be
+ * kept after the cursor has moved.
+ *
+ * @author Florent Georges
+ */
+public class AttributeCursor
+{
+    AttributeCursor(AttributeIndex index)
+    {
+        myIndex = index;
+        myPos = -1;
+    }
+
+    /**
+     * Move to the next attribute, return false if there is none.
+     */
+    public boolean next()
+    {
+        if ( myPos + 1 >= myIndex.size() ) {
+            return false;
+        }
+        ++myPos;
+        if ( myCurrent == null ) {
+            myCurrent = new SaxonAttribute(myIndex.node(myPos));
+        }
+        else {
+            myCurrent.moveTo(myIndex.node(myPos));
+        }
+        return true;
+    }
+
+    /**
+     * The current attribute, null before the first call to {@link #next()}.
+     */
+    public SaxonAttribute current()
+    {
+        return myCurrent;
+    }
+
+    /**
+     * The string value of the current attribute, cached by the element index.
+     */
+    public String value()
+    {
+        return myIndex.value(myPos);
+    }
+
+    private final AttributeIndex myIndex;
+    private int myPos;
+    private SaxonAttribute myCurrent;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
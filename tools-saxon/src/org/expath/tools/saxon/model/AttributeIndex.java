@@ -0,0 +1,173 @@
+/****************************************************************************/
+/*  File:       AttributeIndex.java                                         */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.FingerprintedNode;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.tree.iter.AxisIterator;
+
+/**
+ * Index of the attributes of one element, keyed by fingerprint.
+ *
+ * Built once by walking the attribute axis, then every lookup is a probe in
+ * an open-addressing table (or a plain scan for small elements), without any
+ * allocation.  The string values are computed on first access only.
+ *
+ * @author Florent Georges
+ */
+final class AttributeIndex
+{
+    public static AttributeIndex build(NodeInfo elem)
+    {
+        NodeInfo[] nodes = new NodeInfo[INITIAL_SIZE];
+        int count = 0;
+        AxisIterator it = elem.iterateAxis(AxisInfo.ATTRIBUTE);
+        NodeInfo attr;
+        while ( (attr = it.next()) != null ) {
+            if ( count == nodes.length ) {
+                NodeInfo[] bigger = new NodeInfo[count * 2];
+                System.arraycopy(nodes, 0, bigger, 0, count);
+                nodes = bigger;
+            }
+            nodes[count++] = attr;
+        }
+        return new AttributeIndex(nodes, count);
+    }
+
+    /**
+     * Return the fingerprint of a node, allocating it in the name pool if needed.
+     */
+    public static int fingerprint(NodeInfo node)
+    {
+        if ( node instanceof FingerprintedNode ) {
+            return ((FingerprintedNode) node).getFingerprint();
+        }
+        NamePool pool = node.getConfiguration().getNamePool();
+        return pool.allocate("", node.getURI(), node.getLocalPart()) & NamePool.FP_MASK;
+    }
+
+    private AttributeIndex(NodeInfo[] nodes, int count)
+    {
+        mySize = count;
+        myNodes = nodes;
+        myValues = new String[count];
+        myFingerprints = new int[count];
+        for ( int i = 0; i < count; ++i ) {
+            myFingerprints[i] = fingerprint(nodes[i]);
+        }
+        if ( count > SCAN_THRESHOLD ) {
+            // power of two, at least twice the number of entries
+            int capacity = Integer.highestOneBit(count * 2 - 1) << 1;
+            mySlots = new int[capacity];
+            for ( int i = 0; i < count; ++i ) {
+                int slot = hash(myFingerprints[i]) & (capacity - 1);
+                while ( mySlots[slot] != 0 ) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                // store position + 1, so 0 means empty
+                mySlots[slot] = i + 1;
+            }
+        }
+        else {
+            mySlots = null;
+        }
+    }
+
+    public int size()
+    {
+        return mySize;
+    }
+
+    public NodeInfo node(int pos)
+    {
+        return myNodes[pos];
+    }
+
+    /**
+     * Return the position of the attribute with {@code fingerprint}, or -1.
+     */
+    public int position(int fingerprint)
+    {
+        if ( fingerprint < 0 ) {
+            return -1;
+        }
+        if ( mySlots == null ) {
+            for ( int i = 0; i < mySize; ++i ) {
+                if ( myFingerprints[i] == fingerprint ) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = mySlots.length - 1;
+        int slot = hash(fingerprint) & mask;
+        int entry;
+        while ( (entry = mySlots[slot]) != 0 ) {
+            if ( myFingerprints[entry - 1] == fingerprint ) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the string value of the attribute at {@code pos}, cached.
+     */
+    public String value(int pos)
+    {
+        String value = myValues[pos];
+        if ( value == null ) {
+            value = myNodes[pos].getStringValue();
+            myValues[pos] = value;
+        }
+        return value;
+    }
+
+    private static int hash(int fingerprint)
+    {
+        // fingerprints are allocated sequentially, spread them a bit
+        int h = fingerprint * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Under this number of attributes, a linear scan beats hashing. */
+    private static final int SCAN_THRESHOLD = 8;
+    private static final int INITIAL_SIZE   = 8;
+
+    private final int        mySize;
+    private final NodeInfo[] myNodes;
+    private final String[]   myValues;
+    private final int[]      myFingerprints;
+    private final int[]      mySlots;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
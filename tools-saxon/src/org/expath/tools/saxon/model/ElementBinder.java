@@ -0,0 +1,365 @@
+/****************************************************************************/
+/*  File:       ElementBinder.java                                          */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.TreeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.tiny.TinyNodeImpl;
+import net.sf.saxon.z.IntHashMap;
+import org.expath.tools.ToolsException;
+
+/**
+ * Decode an element into a Java object, in one pass.
+ *
+ * A binder is configured once with a factory for the target objects, and a
+ * setter for each attribute and child element to decode.  Then each call to
+ * {@link #bind(SaxonElement)} creates a new object and walks the attribute
+ * axis and the child axis once each, dispatching every node to its setter by
+ * fingerprint.  For instance:
+ *
+ * <pre>
+ * ElementBinder&lt;Header&gt; binder = new ElementBinder&lt;Header&gt;(factory)
+ *         .required("name", nameSetter)
+ *         .attribute("value", valueSetter)
+ *         .strict();
+ * ...
+ * Header h = binder.bind(elem);
+ * </pre>
+ *
+ * The attribute and element objects passed to the setters are reused for
+ * all the nodes of the same pass, so setters must not keep them.  The binder
+ * must be entirely configured before its first use, after which it is
+ * immutable and can be shared between threads.
+ *
+ * If {@link #cached()} is set, the decoded objects are remembered per element
+ * node, so the same element (typically a literal configuration element in a
+ * stylesheet, passed again and again in a loop) is decoded only once.  The
+ * cache is attached to the document itself (as user data on its
+ * {@link TreeInfo}), keyed by node number, so it never keeps a document
+ * alive.  In that case, the same object is returned for the same element, so
+ * it must not be modified by the callers, and must not keep any reference to
+ * the element.  Only TinyTree nodes are cached.
+ *
+ * @param <T> The type of the decoded objects.
+ *
+ * @author Florent Georges
+ */
+public class ElementBinder<T>
+{
+    /**
+     * Create the object to decode an element into.
+     */
+    public interface Factory<T>
+    {
+        public T create(SaxonElement elem)
+                throws ToolsException;
+    }
+
+    /**
+     * Decode one attribute into the object.
+     */
+    public interface AttributeSetter<T>
+    {
+        public void set(T target, SaxonAttribute attr)
+                throws ToolsException;
+    }
+
+    /**
+     * Decode one child element into the object.
+     */
+    public interface ChildSetter<T>
+    {
+        public void set(T target, SaxonElement child)
+                throws ToolsException;
+    }
+
+    public ElementBinder(Factory<T> factory)
+    {
+        myFactory = factory;
+        myAttributes = new ArrayList<Binding>();
+        myChildren = new ArrayList<Binding>();
+        myRequired = 0;
+        myStrict = false;
+    }
+
+    /**
+     * Bind the optional no-namespace attribute {@code local}.
+     */
+    public ElementBinder<T> attribute(String local, AttributeSetter<T> setter)
+    {
+        checkNotCompiled();
+        myAttributes.add(new Binding("", local, false, setter));
+        return this;
+    }
+
+    /**
+     * Bind the mandatory no-namespace attribute {@code local}.
+     */
+    public ElementBinder<T> required(String local, AttributeSetter<T> setter)
+    {
+        checkNotCompiled();
+        myAttributes.add(new Binding("", local, true, setter));
+        ++myRequired;
+        return this;
+    }
+
+    /**
+     * Bind the child elements {@code ns:local} (the setter is called for each of them).
+     */
+    public ElementBinder<T> child(String ns, String local, ChildSetter<T> setter)
+    {
+        checkNotCompiled();
+        myChildren.add(new Binding(ns, local, false, setter));
+        return this;
+    }
+
+    /**
+     * Reject any no-namespace attribute which is not bound.
+     */
+    public ElementBinder<T> strict()
+    {
+        checkNotCompiled();
+        myStrict = true;
+        return this;
+    }
+
+    /**
+     * Remember the decoded object for each element, see the class documentation.
+     */
+    public ElementBinder<T> cached()
+    {
+        checkNotCompiled();
+        myCacheKey = ElementBinder.class.getName() + "#" + NEXT_CACHE_ID.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * The number of elements found in the cache, if enabled.
+     */
+    public long getCacheHits()
+    {
+        return myHits.get();
+    }
+
+    /**
+     * The number of elements decoded while caching was enabled.
+     */
+    public long getCacheMisses()
+    {
+        return myMisses.get();
+    }
+
+    /**
+     * Decode {@code elem} into a new object (or the cached one, if enabled).
+     *
+     * @throws ToolsException If a required attribute is missing, if an
+     *     attribute is not allowed, or if any setter throws an error.
+     */
+    @SuppressWarnings("unchecked")
+    public T bind(SaxonElement elem)
+            throws ToolsException
+    {
+        NodeInfo node = elem.getNode();
+        if ( myCacheKey == null || ! ( node instanceof TinyNodeImpl ) ) {
+            return decode(elem);
+        }
+        int number = ((TinyNodeImpl) node).getNodeNumber();
+        IntHashMap<Object> decoded = decodedCache(node.getTreeInfo());
+        synchronized ( decoded ) {
+            Object cached = decoded.get(number);
+            if ( cached != null ) {
+                myHits.incrementAndGet();
+                return (T) cached;
+            }
+        }
+        myMisses.incrementAndGet();
+        T target = decode(elem);
+        if ( target != null ) {
+            synchronized ( decoded ) {
+                decoded.put(number, target);
+            }
+        }
+        return target;
+    }
+
+    @SuppressWarnings("unchecked")
+    private IntHashMap<Object> decodedCache(TreeInfo tree)
+    {
+        synchronized ( tree ) {
+            IntHashMap<Object> decoded = (IntHashMap<Object>) tree.getUserData(myCacheKey);
+            if ( decoded == null ) {
+                decoded = new IntHashMap<Object>();
+                tree.setUserData(myCacheKey, decoded);
+            }
+            return decoded;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(SaxonElement elem)
+            throws ToolsException
+    {
+        NodeInfo node = elem.getNode();
+        Compiled compiled = compiled(node.getConfiguration().getNamePool());
+        T target = myFactory.create(elem);
+        // the attributes
+        int required = 0;
+        SaxonAttribute attr = null;
+        AxisIterator attrs = node.iterateAxis(AxisInfo.ATTRIBUTE);
+        NodeInfo a;
+        while ( (a = attrs.next()) != null ) {
+            Binding b = compiled.attributes.get(AttributeIndex.fingerprint(a));
+            if ( b == null ) {
+                if ( myStrict && "".equals(a.getURI()) ) {
+                    throw new ToolsException("@" + a.getDisplayName() + " not allowed on " + node.getDisplayName());
+                }
+                continue;
+            }
+            if ( attr == null ) {
+                attr = new SaxonAttribute(a);
+            }
+            else {
+                attr.moveTo(a);
+            }
+            ((AttributeSetter<T>) b.setter).set(target, attr);
+            if ( b.required ) {
+                ++required;
+            }
+        }
+        if ( required < myRequired ) {
+            throw new ToolsException("Missing @" + missing(node) + " on " + node.getDisplayName());
+        }
+        // the children
+        if ( ! myChildren.isEmpty() ) {
+            ElementCursor children = new ElementCursor(
+                    node.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT), elem.getContext());
+            while ( children.next() ) {
+                SaxonElement child = children.current();
+                Binding b = compiled.children.get(AttributeIndex.fingerprint(child.getNode()));
+                if ( b != null ) {
+                    ((ChildSetter<T>) b.setter).set(target, child);
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Return the name of the first missing required attribute (on error only).
+     */
+    private String missing(NodeInfo node)
+    {
+        for ( Binding b : myAttributes ) {
+            if ( b.required && node.getAttributeValue("", b.local) == null ) {
+                return b.local;
+            }
+        }
+        return "?";
+    }
+
+    private void checkNotCompiled()
+    {
+        if ( myCompiled != null ) {
+            throw new IllegalStateException("The binder cannot be changed once used");
+        }
+    }
+
+    private Compiled compiled(NamePool pool)
+    {
+        Compiled compiled = myCompiled;
+        if ( compiled == null || compiled.pool != pool ) {
+            compiled = new Compiled(pool);
+            myCompiled = compiled;
+        }
+        return compiled;
+    }
+
+    private static class Binding
+    {
+        public Binding(String ns, String local, boolean required, Object setter)
+        {
+            this.ns = ns;
+            this.local = local;
+            this.required = required;
+            this.setter = setter;
+        }
+
+        public final String  ns;
+        public final String  local;
+        public final boolean required;
+        public final Object  setter;
+    }
+
+    /**
+     * The bindings indexed by fingerprint, for one specific name pool.
+     */
+    private class Compiled
+    {
+        public Compiled(NamePool p)
+        {
+            pool = p;
+            attributes = index(myAttributes);
+            children = index(myChildren);
+        }
+
+        private IntHashMap<Binding> index(List<Binding> bindings)
+        {
+            IntHashMap<Binding> map = new IntHashMap<Binding>(Math.max(bindings.size(), 4));
+            for ( Binding b : bindings ) {
+                map.put(pool.allocate("", b.ns, b.local) & NamePool.FP_MASK, b);
+            }
+            return map;
+        }
+
+        public final NamePool            pool;
+        public final IntHashMap<Binding> attributes;
+        public final IntHashMap<Binding> children;
+    }
+
+    private final Factory<T>    myFactory;
+    private final List<Binding> myAttributes;
+    private final List<Binding> myChildren;
+    private int                 myRequired;
+    private boolean             myStrict;
+    private String              myCacheKey;
+    private final AtomicLong    myHits = new AtomicLong();
+    private final AtomicLong    myMisses = new AtomicLong();
+    private volatile Compiled   myCompiled;
+
+    private static final AtomicLong NEXT_CACHE_ID = new AtomicLong();
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
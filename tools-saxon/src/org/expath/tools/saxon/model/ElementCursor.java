@@ -0,0 +1,101 @@
+/****************************************************************************/
+/*  File:       ElementCursor.java                                          */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.tree.iter.AxisIterator;
+import org.expath.tools.ToolsException;
+
+/**
+ * A cursor on a set of elements, reusing one single {@link SaxonElement}.
+ *
+ * The element returned by {@link #current()} is always the same object, moved
+ * to the next node by each call to {@link #next()}.  So it must not be kept
+ * after the cursor has moved.  Typical use:
+ *
+ * <pre>
+ * ElementCursor c = elem.childCursor(ns);
+ * while ( c.next() ) {
+ *     SaxonElement child = c.current();
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Florent Georges
+ */
+public class ElementCursor
+{
+    ElementCursor(AxisIterator it, XPathContext ctxt)
+    {
+        myIter = it;
+        myCtxt = ctxt;
+    }
+
+    /**
+     * Move to the next element, return false if there is none.
+     */
+    public boolean next()
+    {
+        NodeInfo node = myIter.next();
+        if ( node == null ) {
+            return false;
+        }
+        if ( myCurrent == null ) {
+            try {
+                myCurrent = new SaxonElement(node, myCtxt);
+            }
+            catch ( ToolsException ex ) {
+                // we know by construction this is not possible to arrive here
+                // (we've just check nullness above, and we iterate only on
+                // elements, those are the only two reasons the constructor can
+                // throw an exception)
+                throw new RuntimeException("[cannot happen] error building the saxon element", ex);
+            }
+        }
+        else {
+            myCurrent.moveTo(node);
+        }
+        return true;
+    }
+
+    /**
+     * The current element, null before the first call to {@link #next()}.
+     */
+    public SaxonElement current()
+    {
+        return myCurrent;
+    }
+
+    private final AxisIterator myIter;
+    private final XPathContext myCtxt;
+    private SaxonElement myCurrent;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,282 @@
+/****************************************************************************/
+/*  File:       ElementPath.java                                            */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.LocalNameTest;
+import net.sf.saxon.pattern.NameTest;
+import net.sf.saxon.pattern.NamespaceTest;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.type.Type;
+import org.expath.tools.ToolsException;
+
+/**
+ * A compiled, simple path to navigate configuration elements.
+ *
+ * A path is a list of child element steps separated by slashes, optionally
+ * ending with an attribute step, like {@code http:header/@name}.  Each step
+ * is either a QName, {@code *} (or {@code *:*}), {@code prefix:*} or
+ * {@code *:local} (the attribute step is the same, prefixed by {@code @}).
+ * Unprefixed names are in no namespace, for elements as well as for
+ * attributes.
+ *
+ * The path is parsed once by {@link #compile(String, Map)}.  The node tests
+ * (using fingerprints) are built the first time the path is used with a given
+ * name pool, then evaluating the path only walks the child and attribute axes.
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Florent Georges
+ */
+public class ElementPath
+{
+    /**
+     * Compile a path.
+     *
+     * @param path The path to compile.
+     * @param namespaces The namespace bindings, from prefixes to URIs.
+     * @throws ToolsException If the path is not valid, or uses an unbound prefix.
+     */
+    public static ElementPath compile(String path, Map<String, String> namespaces)
+            throws ToolsException
+    {
+        if ( path == null || path.length() == 0 ) {
+            throw new ToolsException("The path is empty");
+        }
+        String[] tokens = path.split("/", -1);
+        Step[] steps = new Step[tokens.length];
+        for ( int i = 0; i < tokens.length; ++i ) {
+            String token = tokens[i].trim();
+            boolean attr = token.startsWith("@");
+            if ( attr && i < tokens.length - 1 ) {
+                throw new ToolsException("An attribute step can only be the last one: " + path);
+            }
+            String name = attr ? token.substring(1) : token;
+            steps[i] = parseStep(attr ? Type.ATTRIBUTE : Type.ELEMENT, name, namespaces, path);
+        }
+        return new ElementPath(path, steps);
+    }
+
+    private static Step parseStep(int kind, String name, Map<String, String> namespaces, String path)
+            throws ToolsException
+    {
+        if ( name.length() == 0 ) {
+            throw new ToolsException("Empty step in the path: " + path);
+        }
+        if ( "*".equals(name) ) {
+            return new Step(kind, null, null);
+        }
+        int colon = name.indexOf(':');
+        if ( colon < 0 ) {
+            return new Step(kind, "", name);
+        }
+        String prefix = name.substring(0, colon);
+        String local = name.substring(colon + 1);
+        if ( prefix.length() == 0 || local.length() == 0 || local.indexOf(':') >= 0 ) {
+            throw new ToolsException("Invalid name test '" + name + "' in the path: " + path);
+        }
+        if ( "*".equals(prefix) ) {
+            // *:* is the same as *
+            return new Step(kind, null, "*".equals(local) ? null : local);
+        }
+        String uri = namespaces == null ? null : namespaces.get(prefix);
+        if ( uri == null ) {
+            throw new ToolsException("Prefix '" + prefix + "' not bound in the path: " + path);
+        }
+        return new Step(kind, uri, "*".equals(local) ? null : local);
+    }
+
+    private ElementPath(String path, Step[] steps)
+    {
+        myPath = path;
+        mySteps = steps;
+    }
+
+    /**
+     * Return all the nodes selected by this path, in document order.
+     */
+    public List<NodeInfo> select(SaxonElement context)
+    {
+        return select(context.getNode());
+    }
+
+    /**
+     * Return all the nodes selected by this path, in document order.
+     */
+    public List<NodeInfo> select(NodeInfo context)
+    {
+        NodeTest[] tests = tests(context.getConfiguration().getNamePool());
+        List<NodeInfo> result = new ArrayList<NodeInfo>();
+        select(context, 0, tests, result);
+        return result;
+    }
+
+    /**
+     * Return the first node selected by this path, or null.
+     */
+    public NodeInfo first(SaxonElement context)
+    {
+        return first(context.getNode());
+    }
+
+    /**
+     * Return the first node selected by this path, or null.
+     */
+    public NodeInfo first(NodeInfo context)
+    {
+        NodeTest[] tests = tests(context.getConfiguration().getNamePool());
+        return first(context, 0, tests);
+    }
+
+    /**
+     * Return the string value of the first node selected by this path, or null.
+     */
+    public String value(SaxonElement context)
+    {
+        NodeInfo node = first(context.getNode());
+        return node == null ? null : node.getStringValue();
+    }
+
+    @Override
+    public String toString()
+    {
+        return myPath;
+    }
+
+    private void select(NodeInfo node, int step, NodeTest[] tests, List<NodeInfo> result)
+    {
+        AxisIterator it = node.iterateAxis(mySteps[step].axis(), tests[step]);
+        NodeInfo n;
+        while ( (n = it.next()) != null ) {
+            if ( step == tests.length - 1 ) {
+                result.add(n);
+            }
+            else {
+                select(n, step + 1, tests, result);
+            }
+        }
+    }
+
+    private NodeInfo first(NodeInfo node, int step, NodeTest[] tests)
+    {
+        AxisIterator it = node.iterateAxis(mySteps[step].axis(), tests[step]);
+        NodeInfo n;
+        while ( (n = it.next()) != null ) {
+            if ( step == tests.length - 1 ) {
+                it.close();
+                return n;
+            }
+            NodeInfo found = first(n, step + 1, tests);
+            if ( found != null ) {
+                it.close();
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private NodeTest[] tests(NamePool pool)
+    {
+        Compiled compiled = myCompiled;
+        if ( compiled == null || compiled.pool != pool ) {
+            compiled = new Compiled(pool);
+            myCompiled = compiled;
+        }
+        return compiled.tests;
+    }
+
+    /**
+     * One step, a null URI or local name means any.
+     */
+    private static class Step
+    {
+        public Step(int kind, String uri, String local)
+        {
+            myKind = kind;
+            myUri = uri;
+            myLocal = local;
+        }
+
+        public byte axis()
+        {
+            return myKind == Type.ATTRIBUTE ? AxisInfo.ATTRIBUTE : AxisInfo.CHILD;
+        }
+
+        public NodeTest test(NamePool pool)
+        {
+            if ( myUri == null && myLocal == null ) {
+                return myKind == Type.ATTRIBUTE ? NodeKindTest.ATTRIBUTE : NodeKindTest.ELEMENT;
+            }
+            else if ( myUri == null ) {
+                return new LocalNameTest(pool, myKind, myLocal);
+            }
+            else if ( myLocal == null ) {
+                return new NamespaceTest(pool, myKind, myUri);
+            }
+            else {
+                int fingerprint = pool.allocate("", myUri, myLocal) & NamePool.FP_MASK;
+                return new NameTest(myKind, fingerprint, pool);
+            }
+        }
+
+        private final int    myKind;
+        private final String myUri;
+        private final String myLocal;
+    }
+
+    /**
+     * The node tests built against one specific name pool.
+     */
+    private class Compiled
+    {
+        public Compiled(NamePool p)
+        {
+            pool = p;
+            tests = new NodeTest[mySteps.length];
+            for ( int i = 0; i < mySteps.length; ++i ) {
+                tests[i] = mySteps[i].test(pool);
+            }
+        }
+
+        public final NamePool   pool;
+        public final NodeTest[] tests;
+    }
+
+    private final String myPath;
+    private final Step[] mySteps;
+    private volatile Compiled myCompiled;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,219 @@
+/****************************************************************************/
+/*  File:       ElementShape.java                                           */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.util.HashSet;
+import java.util.Set;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.z.IntHashSet;
+import org.expath.tools.ToolsException;
+
+/**
+ * A precompiled validator for the attributes and children of an element.
+ *
+ * This is the reusable equivalent of {@link SaxonElement#noOtherNCNameAttribute(String[], String[])},
+ * meant to be created once, typically along with the function definition,
+ * and used on every call.  The rules are:
+ *
+ * <ul>
+ * <li>an attribute or a child element in a forbidden namespace is an error</li>
+ * <li>a no-namespace attribute not in the allowed names is an error</li>
+ * <li>a child element in the children namespace not in the allowed children
+ *     is an error (only if children are given, and their namespace)</li>
+ * <li>any other attribute or child element is ignored</li>
+ * </ul>
+ *
+ * The names are resolved to fingerprints the first time the shape is used
+ * with a given name pool, so validating an element is one pass over its
+ * attributes and one pass over its children, comparing integers.  Instances
+ * are immutable and can be shared between threads.
+ *
+ * @author Florent Georges
+ */
+public class ElementShape
+{
+    /**
+     * A shape validating only attributes.
+     *
+     * @param attributes The allowed no-namespace attribute names.
+     * @param forbidden_ns The forbidden namespaces (can be null).
+     */
+    public ElementShape(String[] attributes, String[] forbidden_ns)
+    {
+        this(attributes, forbidden_ns, null, null);
+    }
+
+    /**
+     * A shape validating attributes and children.
+     *
+     * @param attributes The allowed no-namespace attribute names.
+     * @param forbidden_ns The forbidden namespaces (can be null).
+     * @param children_ns The namespace of the children to check (can be null).
+     * @param children The allowed local names of children in {@code children_ns}
+     *      (can be null, to not check children at all).
+     */
+    public ElementShape(String[] attributes, String[] forbidden_ns, String children_ns, String[] children)
+    {
+        if ( attributes == null ) {
+            throw new NullPointerException("the attributes array is null");
+        }
+        if ( children != null && children_ns == null ) {
+            throw new NullPointerException("the children namespace is null");
+        }
+        myAttributes = attributes.clone();
+        myForbiddenNs = new HashSet<String>();
+        if ( forbidden_ns != null ) {
+            for ( String ns : forbidden_ns ) {
+                myForbiddenNs.add(ns);
+            }
+        }
+        myChildrenNs = children_ns;
+        myChildren = children == null ? null : children.clone();
+    }
+
+    /**
+     * Validate an element against this shape.
+     *
+     * @throws ToolsException If the element does not respect this shape.
+     */
+    public void validate(SaxonElement elem)
+            throws ToolsException
+    {
+        NodeInfo node = elem.getNode();
+        Compiled compiled = compiled(node.getConfiguration().getNamePool());
+        AttributeIndex attrs = elem.attributeIndex();
+        for ( int i = 0; i < attrs.size(); ++i ) {
+            checkAttribute(node, attrs.node(i), compiled);
+        }
+        checkChildren(node, compiled);
+    }
+
+    /**
+     * Validate an element node against this shape.
+     *
+     * @throws ToolsException If the element does not respect this shape.
+     */
+    public void validate(NodeInfo node)
+            throws ToolsException
+    {
+        Compiled compiled = compiled(node.getConfiguration().getNamePool());
+        AxisIterator it = node.iterateAxis(AxisInfo.ATTRIBUTE);
+        NodeInfo attr;
+        while ( (attr = it.next()) != null ) {
+            checkAttribute(node, attr, compiled);
+        }
+        checkChildren(node, compiled);
+    }
+
+    private void checkAttribute(NodeInfo elem, NodeInfo attr, Compiled compiled)
+            throws ToolsException
+    {
+        String ns = attr.getURI();
+        if ( myForbiddenNs.contains(ns) ) {
+            throw new ToolsException("@" + attr.getDisplayName() + " in namespace " + ns
+                    + " not allowed on " + elem.getDisplayName());
+        }
+        else if ( ! "".equals(ns) ) {
+            // ignore other-namespace-attributes
+        }
+        else if ( ! compiled.attributes.contains(AttributeIndex.fingerprint(attr)) ) {
+            throw new ToolsException("@" + attr.getDisplayName() + " not allowed on " + elem.getDisplayName());
+        }
+    }
+
+    private void checkChildren(NodeInfo elem, Compiled compiled)
+            throws ToolsException
+    {
+        if ( myChildren == null && myForbiddenNs.isEmpty() ) {
+            return;
+        }
+        AxisIterator it = elem.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT);
+        NodeInfo child;
+        while ( (child = it.next()) != null ) {
+            String ns = child.getURI();
+            if ( myForbiddenNs.contains(ns) ) {
+                throw new ToolsException(child.getDisplayName() + " in namespace " + ns
+                        + " not allowed in " + elem.getDisplayName());
+            }
+            else if ( myChildren == null || ! myChildrenNs.equals(ns) ) {
+                // ignore other-namespace-elements
+            }
+            else if ( ! compiled.children.contains(AttributeIndex.fingerprint(child)) ) {
+                throw new ToolsException(child.getDisplayName() + " not allowed in " + elem.getDisplayName());
+            }
+        }
+    }
+
+    private Compiled compiled(NamePool pool)
+    {
+        Compiled compiled = myCompiled;
+        if ( compiled == null || compiled.pool != pool ) {
+            compiled = new Compiled(pool);
+            myCompiled = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * The names resolved against one specific name pool.
+     */
+    private class Compiled
+    {
+        public Compiled(NamePool p)
+        {
+            pool = p;
+            attributes = new IntHashSet(myAttributes.length);
+            for ( String name : myAttributes ) {
+                attributes.add(pool.allocate("", "", name) & NamePool.FP_MASK);
+            }
+            children = new IntHashSet(myChildren == null ? 0 : myChildren.length);
+            if ( myChildren != null ) {
+                for ( String name : myChildren ) {
+                    children.add(pool.allocate("", myChildrenNs, name) & NamePool.FP_MASK);
+                }
+            }
+        }
+
+        public final NamePool   pool;
+        public final IntHashSet attributes;
+        public final IntHashSet children;
+    }
+
+    private final String[]    myAttributes;
+    private final Set<String> myForbiddenNs;
+    private final String      myChildrenNs;
+    private final String[]    myChildren;
+    private volatile Compiled myCompiled;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
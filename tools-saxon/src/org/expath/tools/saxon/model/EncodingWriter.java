@@ -0,0 +1,285 @@
+/****************************************************************************/
+/*  File:       EncodingWriter.java                                         */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.io.CharConversionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+/**
+ * Encodes to UTF-8, ISO-8859-1 or US-ASCII, in a single loop over blocks of characters.
+ *
+ * The serializer escapes the characters not available in the encoding
+ * before writing them, so this encoder does not need the generality (and
+ * the indirections) of a {@code CharsetEncoder}: each block of characters is
+ * encoded straight into a byte buffer, which is written to the target stream
+ * when full.  Strings are first copied into a block of characters, so the
+ * same loop is used for everything.  A character not available in the
+ * encoding raises a {@code CharConversionException}.
+ *
+ * Closing the writer flushes it, but leaves the target stream open.
+ * Instances are not thread-safe.
+ *
+ * @author Florent Georges
+ */
+final class EncodingWriter
+        extends Writer
+{
+    /**
+     * Return an encoding writer, or null if the encoding is not supported.
+     */
+    public static EncodingWriter forEncoding(OutputStream out, String encoding)
+    {
+        int max = maxChar(encoding);
+        return max == UNSUPPORTED ? null : new EncodingWriter(out, max);
+    }
+
+    public static boolean isSupported(String encoding)
+    {
+        return maxChar(encoding) != UNSUPPORTED;
+    }
+
+    /**
+     * The highest character available in {@code encoding} (null means UTF-8).
+     */
+    private static int maxChar(String encoding)
+    {
+        if ( encoding == null || "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding) ) {
+            return UTF_8;
+        }
+        else if ( "ISO-8859-1".equalsIgnoreCase(encoding) || "ISO8859_1".equalsIgnoreCase(encoding)
+                || "latin1".equalsIgnoreCase(encoding) ) {
+            return 0xFF;
+        }
+        else if ( "US-ASCII".equalsIgnoreCase(encoding) || "ASCII".equalsIgnoreCase(encoding) ) {
+            return 0x7F;
+        }
+        else {
+            return UNSUPPORTED;
+        }
+    }
+
+    /**
+     * Return an encoding writer if possible, or else an {@code OutputStreamWriter}.
+     */
+    public static Writer open(OutputStream out, String encoding)
+            throws UnsupportedEncodingException
+    {
+        Writer writer = forEncoding(out, encoding);
+        return writer == null ? new OutputStreamWriter(out, encoding) : writer;
+    }
+
+    private EncodingWriter(OutputStream out, int max)
+    {
+        myOut = out;
+        myMax = max;
+        myBytes = new byte[BUFFER_SIZE];
+        myChars = new char[BLOCK_SIZE];
+    }
+
+    /**
+     * Write the byte order mark, for UTF-8 only (as the Saxon serializer does).
+     */
+    public void writeByteOrderMark()
+            throws IOException
+    {
+        if ( myMax == UTF_8 ) {
+            write(BYTE_ORDER_MARK);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+            throws IOException
+    {
+        encode(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len)
+            throws IOException
+    {
+        while ( len > 0 ) {
+            int n = Math.min(len, myChars.length);
+            str.getChars(off, off + n, myChars, 0);
+            encode(myChars, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(int c)
+            throws IOException
+    {
+        myChars[0] = (char) c;
+        encode(myChars, 0, 1);
+    }
+
+    @Override
+    public Writer append(CharSequence csq)
+            throws IOException
+    {
+        if ( csq instanceof String ) {
+            String str = (String) csq;
+            write(str, 0, str.length());
+            return this;
+        }
+        int len = csq.length();
+        int i = 0;
+        while ( i < len ) {
+            int n = Math.min(len - i, myChars.length);
+            for ( int j = 0; j < n; ++j ) {
+                myChars[j] = csq.charAt(i + j);
+            }
+            encode(myChars, 0, n);
+            i += n;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the buffer, and flushes the target stream.
+     */
+    @Override
+    public void flush()
+            throws IOException
+    {
+        drain();
+        myOut.flush();
+    }
+
+    /**
+     * Flushes the writer, but leaves the target stream open.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        if ( myHighSurrogate != 0 ) {
+            char c = myHighSurrogate;
+            myHighSurrogate = 0;
+            throw unavailable(c);
+        }
+        flush();
+    }
+
+    private void encode(char[] chars, int off, int len)
+            throws IOException
+    {
+        byte[] buf = myBytes;
+        int pos = myPos;
+        int end = off + len;
+        for ( int i = off; i < end; ++i ) {
+            if ( pos > buf.length - 4 ) {
+                // room for the longest UTF-8 sequence
+                myPos = pos;
+                drain();
+                pos = 0;
+            }
+            char c = chars[i];
+            if ( c < 0x80 && myHighSurrogate == 0 ) {
+                buf[pos++] = (byte) c;
+            }
+            else if ( myMax != UTF_8 ) {
+                if ( c > myMax ) {
+                    myPos = pos;
+                    throw unavailable(c);
+                }
+                buf[pos++] = (byte) c;
+            }
+            else if ( myHighSurrogate != 0 ) {
+                // the low surrogate, maybe in a subsequent block
+                char high = myHighSurrogate;
+                myHighSurrogate = 0;
+                if ( ! Character.isLowSurrogate(c) ) {
+                    myPos = pos;
+                    throw unavailable(high);
+                }
+                int cp = Character.toCodePoint(high, c);
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            }
+            else if ( c < 0x800 ) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if ( Character.isHighSurrogate(c) ) {
+                myHighSurrogate = c;
+            }
+            else if ( Character.isLowSurrogate(c) ) {
+                myPos = pos;
+                throw unavailable(c);
+            }
+            else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        myPos = pos;
+    }
+
+    private static CharConversionException unavailable(char c)
+    {
+        return new CharConversionException(
+                "Output character not available in this encoding (x" + Integer.toHexString(c) + ")");
+    }
+
+    private void drain()
+            throws IOException
+    {
+        if ( myPos > 0 ) {
+            myOut.write(myBytes, 0, myPos);
+            myPos = 0;
+        }
+    }
+
+    /** Not a character limit, flags UTF-8 (all characters can be encoded). */
+    private static final int UTF_8 = -1;
+    private static final int UNSUPPORTED = 0;
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int BLOCK_SIZE  = 2 * 1024;
+
+    private final OutputStream myOut;
+    private final int myMax;
+    private final byte[] myBytes;
+    private final char[] myChars;
+    private int myPos = 0;
+    /** A high surrogate at the end of the previous block, or 0. */
+    private char myHighSurrogate = 0;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,144 @@
+/****************************************************************************/
+/*  File:       FlushingWriter.java                                         */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import org.expath.tools.saxon.serial.FlushPolicy;
+
+/**
+ * Encodes the output of the serializer, flushing it according to a policy.
+ *
+ * The serializer writes to this writer directly, without any buffer of its
+ * own, so flushing it flushes all the output produced so far down to the
+ * target stream.
+ *
+ * @author Florent Georges
+ */
+final class FlushingWriter
+        extends Writer
+{
+    public FlushingWriter(OutputStream out, String encoding, FlushPolicy policy)
+            throws UnsupportedEncodingException
+    {
+        myWriter = EncodingWriter.open(out, encoding);
+        myPerItem = policy.isPerItem();
+        myBytes = policy.getBytes();
+        myNanos = policy.getMillis() * 1000000L;
+        myLastFlush = System.nanoTime();
+    }
+
+    /**
+     * To be called after each top-level item.
+     */
+    public void endItem()
+            throws IOException
+    {
+        if ( myPerItem ) {
+            flush();
+        }
+        else {
+            check();
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+            throws IOException
+    {
+        myWriter.write(cbuf, off, len);
+        myPending += len;
+        check();
+    }
+
+    @Override
+    public void write(String str, int off, int len)
+            throws IOException
+    {
+        myWriter.write(str, off, len);
+        myPending += len;
+        check();
+    }
+
+    @Override
+    public void write(int c)
+            throws IOException
+    {
+        myWriter.write(c);
+        ++myPending;
+        check();
+    }
+
+    @Override
+    public void flush()
+            throws IOException
+    {
+        // flushes the target stream as well
+        myWriter.flush();
+        myPending = 0;
+        if ( myNanos > 0 ) {
+            myLastFlush = System.nanoTime();
+        }
+    }
+
+    /**
+     * Flushes the encoder, but leaves the target stream open.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        flush();
+    }
+
+    private void check()
+            throws IOException
+    {
+        if ( myPending == 0 ) {
+            return;
+        }
+        if ( myBytes > 0 && myPending >= myBytes ) {
+            flush();
+        }
+        else if ( myNanos > 0 && System.nanoTime() - myLastFlush >= myNanos ) {
+            flush();
+        }
+    }
+
+    private final Writer myWriter;
+    private final boolean myPerItem;
+    private final long myBytes;
+    private final long myNanos;
+    private long myPending = 0;
+    private long myLastFlush;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,237 @@
+/****************************************************************************/
+/*  File:       ParallelSerializer.java                                     */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.xml.transform.OutputKeys;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.lib.SaxonOutputKeys;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.serialize.CharacterMapIndex;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.ArrayIterator;
+import net.sf.saxon.value.AtomicValue;
+import org.expath.tools.saxon.serial.SerialProfile;
+
+/**
+ * Serialize a sequence by chunks of items, in parallel, then in order.
+ *
+ * The sequence is read on the calling thread, and cut in chunks of a fixed
+ * number of items.  Each chunk is serialized on the executor, in its own
+ * buffer, and the buffers are written to the output stream in the order of
+ * the sequence.  Only the first chunk gets the XML declaration, the doctype
+ * and the byte order mark.  A space is inserted between two chunks when the
+ * first one ends and the second one starts with an atomic value, as the
+ * serializer does between adjacent atomic values.
+ *
+ * This is only equivalent to serializing the whole sequence at once when its
+ * items are independent from each other (e.g. one record element per item),
+ * and except for the indentation whitespace between chunks.  The number of
+ * chunks pending at any time is bounded, to bound the memory used.
+ *
+ * @author Florent Georges
+ */
+final class ParallelSerializer
+{
+    public ParallelSerializer(Configuration config, SerialProfile profile, ExecutorService executor, int chunk_size)
+    {
+        Properties props = profile.getOutputProperties();
+        if ( chunk_size <= 0 ) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunk_size);
+        }
+        myConfig = config;
+        myFirstProps = props;
+        myMaps = profile.getCharacterMaps();
+        myNextProps = new Properties();
+        myNextProps.putAll(props);
+        myNextProps.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        myNextProps.setProperty(SaxonOutputKeys.BYTE_ORDER_MARK, "no");
+        myNextProps.remove(OutputKeys.DOCTYPE_PUBLIC);
+        myNextProps.remove(OutputKeys.DOCTYPE_SYSTEM);
+        myExecutor = executor;
+        myChunkSize = chunk_size;
+        myMaxPending = 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    public void serialize(SequenceIterator it, OutputStream out)
+            throws XPathException, IOException
+    {
+        LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+        boolean prev_atomic = false;
+        try {
+            boolean first = true;
+            Item[] items;
+            while ( (items = read(it)) != null ) {
+                pending.addLast(myExecutor.submit(new Chunk(items, first)));
+                first = false;
+                if ( pending.size() >= myMaxPending ) {
+                    prev_atomic = write(pending.removeFirst(), out, prev_atomic);
+                }
+            }
+            while ( ! pending.isEmpty() ) {
+                prev_atomic = write(pending.removeFirst(), out, prev_atomic);
+            }
+        }
+        finally {
+            for ( Future<Chunk> f : pending ) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Read the next chunk of items, or null if the sequence is exhausted.
+     */
+    private Item[] read(SequenceIterator it)
+            throws XPathException
+    {
+        Item[] items = new Item[myChunkSize];
+        int count = 0;
+        Item item;
+        while ( count < myChunkSize && (item = it.next()) != null ) {
+            items[count++] = item;
+        }
+        if ( count == 0 ) {
+            return null;
+        }
+        else if ( count < myChunkSize ) {
+            Item[] exact = new Item[count];
+            System.arraycopy(items, 0, exact, 0, count);
+            return exact;
+        }
+        else {
+            return items;
+        }
+    }
+
+    /**
+     * Wait for a chunk and write it, return whether it ends with an atomic value.
+     */
+    private boolean write(Future<Chunk> future, OutputStream out, boolean prev_atomic)
+            throws XPathException, IOException
+    {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        }
+        catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new XPathException("Interrupted while serializing the sequence", ex);
+        }
+        catch ( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if ( cause instanceof XPathException ) {
+                throw (XPathException) cause;
+            }
+            throw new XPathException("Error serializing a chunk of the sequence", cause);
+        }
+        if ( prev_atomic && chunk.startsWithAtomic() ) {
+            out.write(separator());
+        }
+        chunk.writeTo(out);
+        return chunk.endsWithAtomic();
+    }
+
+    /**
+     * A single space, in the output encoding.
+     */
+    private byte[] separator()
+            throws UnsupportedEncodingException
+    {
+        String encoding = myFirstProps.getProperty(OutputKeys.ENCODING, "UTF-8");
+        if ( encoding.equalsIgnoreCase("UTF-16") ) {
+            // Java would prepend a byte order mark, and the serializer uses big endian
+            encoding = "UTF-16BE";
+        }
+        return " ".getBytes(encoding);
+    }
+
+    /**
+     * The serialization of a chunk of items, into its own buffer.
+     */
+    private class Chunk
+            implements Callable<Chunk>
+    {
+        public Chunk(Item[] items, boolean first)
+        {
+            myItems = items;
+            myFirst = first;
+        }
+
+        @Override
+        public Chunk call()
+                throws XPathException, IOException
+        {
+            Properties props = myFirst ? myFirstProps : myNextProps;
+            myBuffer = new ByteArrayOutputStream();
+            SaxonSequence.serializeSequence(new ArrayIterator(myItems), myConfig, myBuffer, props, myMaps);
+            return this;
+        }
+
+        public boolean startsWithAtomic()
+        {
+            return myItems[0] instanceof AtomicValue;
+        }
+
+        public boolean endsWithAtomic()
+        {
+            return myItems[myItems.length - 1] instanceof AtomicValue;
+        }
+
+        public void writeTo(OutputStream out)
+                throws IOException
+        {
+            myBuffer.writeTo(out);
+        }
+
+        private final Item[] myItems;
+        private final boolean myFirst;
+        private ByteArrayOutputStream myBuffer;
+    }
+
+    private final Configuration   myConfig;
+    private final Properties      myFirstProps;
+    private final Properties      myNextProps;
+    private final CharacterMapIndex myMaps;
+    private final ExecutorService myExecutor;
+    private final int             myChunkSize;
+    private final int             myMaxPending;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,122 @@
+/****************************************************************************/
+/*  File:       PooledStringWriter.java                                     */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.io.Writer;
+
+/**
+ * A writer to a string, with a character buffer reused by each thread.
+ *
+ * Unlike {@code StringWriter}, it is not synchronized.  The buffer is taken
+ * from the current thread by {@link #acquire()} and given back by
+ * {@link #release()}, so nested uses on the same thread (e.g. a lazy
+ * sequence serializing another one while being serialized) get their own
+ * buffer.  Buffers grown too big are not kept.
+ *
+ * @author Florent Georges
+ */
+final class PooledStringWriter
+        extends Writer
+{
+    public static PooledStringWriter acquire()
+    {
+        PooledStringWriter writer = POOL.get();
+        if ( writer == null ) {
+            return new PooledStringWriter();
+        }
+        POOL.set(null);
+        return writer;
+    }
+
+    private PooledStringWriter()
+    {
+        myBuffer = new StringBuilder(INITIAL_SIZE);
+    }
+
+    /**
+     * Give the buffer back to the current thread.  The writer must not be used anymore.
+     */
+    public void release()
+    {
+        if ( myBuffer.capacity() <= MAX_POOLED_SIZE ) {
+            myBuffer.setLength(0);
+            POOL.set(this);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+    {
+        myBuffer.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len)
+    {
+        myBuffer.append(str, off, off + len);
+    }
+
+    @Override
+    public void write(int c)
+    {
+        myBuffer.append((char) c);
+    }
+
+    @Override
+    public Writer append(CharSequence csq)
+    {
+        myBuffer.append(csq);
+        return this;
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public String toString()
+    {
+        return myBuffer.toString();
+    }
+
+    private static final int INITIAL_SIZE    = 1024;
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<PooledStringWriter> POOL = new ThreadLocal<PooledStringWriter>();
+
+    private final StringBuilder myBuffer;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
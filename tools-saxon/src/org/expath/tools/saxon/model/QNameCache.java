@@ -0,0 +1,209 @@
+/****************************************************************************/
+/*  File:       QNameCache.java                                             */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import net.sf.saxon.om.InscopeNamespaceResolver;
+import net.sf.saxon.om.NamespaceBinding;
+import net.sf.saxon.om.NamespaceResolver;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.om.TreeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.Type;
+import org.expath.tools.ToolsException;
+
+/**
+ * Cache of the lexical QNames resolved in one document.
+ *
+ * All elements below the same namespace declarations (that is, with the same
+ * nearest ancestor-or-self declaring namespaces) share the same in-scope
+ * namespaces.  Such an ancestor is a "scope", and each scope caches the QNames
+ * resolved against it, keyed by their lexical value.  So each distinct QName
+ * is resolved only once per scope, with only one namespace resolver.
+ *
+ * The cache is attached to the document itself (as user data on its
+ * {@link TreeInfo}), so it lives and dies with it.  Both the number of scopes
+ * and the number of names per scope are bounded, least recently used entries
+ * being dropped first.  Instances are thread-safe.
+ *
+ * @author Florent Georges
+ */
+public class QNameCache
+{
+    /**
+     * Return the cache for the document containing {@code node}.
+     */
+    public static QNameCache forDocument(NodeInfo node)
+    {
+        TreeInfo tree = node.getTreeInfo();
+        synchronized ( tree ) {
+            QNameCache cache;
+            try {
+                cache = (QNameCache) tree.getUserData(USER_DATA_KEY);
+                if ( cache == null ) {
+                    cache = new QNameCache();
+                    tree.setUserData(USER_DATA_KEY, cache);
+                }
+            }
+            catch ( UnsupportedOperationException ex ) {
+                // this tree model cannot hold user data, do not share the cache
+                cache = new QNameCache();
+            }
+            return cache;
+        }
+    }
+
+    private QNameCache()
+    {
+        myScopes = new LruMap<NodeInfo, Scope>(MAX_SCOPES);
+    }
+
+    /**
+     * Return the scope of {@code elem}, to parse QNames in its context.
+     */
+    public Scope scope(NodeInfo elem)
+    {
+        NodeInfo anchor = anchor(elem);
+        synchronized ( this ) {
+            Scope scope = myScopes.get(anchor);
+            if ( scope == null ) {
+                scope = new Scope(anchor);
+                myScopes.put(anchor, scope);
+            }
+            return scope;
+        }
+    }
+
+    /**
+     * Return the number of QNames found in the cache.
+     */
+    public synchronized long getHits()
+    {
+        return myHits;
+    }
+
+    /**
+     * Return the number of QNames that had to be resolved.
+     */
+    public synchronized long getMisses()
+    {
+        return myMisses;
+    }
+
+    /**
+     * The nearest ancestor-or-self element declaring namespaces, or the outermost element.
+     */
+    private NodeInfo anchor(NodeInfo elem)
+    {
+        NamespaceBinding[] buffer = new NamespaceBinding[4];
+        NodeInfo node = elem;
+        while ( true ) {
+            NamespaceBinding[] decls = node.getDeclaredNamespaces(buffer);
+            if ( decls.length > 0 && decls[0] != null ) {
+                return node;
+            }
+            NodeInfo parent = node.getParent();
+            if ( parent == null || parent.getNodeKind() != Type.ELEMENT ) {
+                return node;
+            }
+            node = parent;
+        }
+    }
+
+    /**
+     * The QNames resolved in the context of one set of in-scope namespaces.
+     */
+    public class Scope
+    {
+        private Scope(NodeInfo anchor)
+        {
+            myResolver = new InscopeNamespaceResolver(anchor);
+            myNames = new LruMap<String, QName>(MAX_NAMES);
+        }
+
+        public QName parse(String value)
+                throws ToolsException
+        {
+            synchronized ( QNameCache.this ) {
+                QName name = myNames.get(value);
+                if ( name != null ) {
+                    ++myHits;
+                    return name;
+                }
+                ++myMisses;
+            }
+            QName name;
+            try {
+                name = StructuredQName.fromLexicalQName(value, true, false, myResolver).toJaxpQName();
+            }
+            catch ( XPathException ex ) {
+                throw new ToolsException("Error parsing the literal QName: " + value, ex);
+            }
+            synchronized ( QNameCache.this ) {
+                myNames.put(value, name);
+            }
+            return name;
+        }
+
+        private final NamespaceResolver   myResolver;
+        private final Map<String, QName> myNames;
+    }
+
+    private static class LruMap<K, V>
+            extends LinkedHashMap<K, V>
+    {
+        public LruMap(int max)
+        {
+            super(16, 0.75f, true);
+            myMax = max;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+        {
+            return size() > myMax;
+        }
+
+        private static final long serialVersionUID = 1L;
+        private final int myMax;
+    }
+
+    private static final String USER_DATA_KEY = QNameCache.class.getName();
+    private static final int MAX_SCOPES = 64;
+    private static final int MAX_NAMES  = 256;
+
+    private final Map<NodeInfo, Scope> myScopes;
+    private long myHits;
+    private long myMisses;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
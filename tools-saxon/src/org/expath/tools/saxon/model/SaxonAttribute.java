@@ -10,11 +10,7 @@
 package org.expath.tools.saxon.model;
 
 import net.sf.saxon.om.NodeInfo;
-import net.sf.saxon.trans.XPathException;
-import net.sf.saxon.value.AtomicValue;
-import net.sf.saxon.value.BooleanValue;
-import net.sf.saxon.value.IntegerValue;
-import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.Whitespace;
 import org.expath.tools.ToolsException;
 import org.expath.tools.model.Attribute;
 
@@ -49,39 +45,195 @@ public class SaxonAttribute
         return myNode.getStringValue();
     }
 
+    /**
+     * Return the value as a char sequence, without copying it if possible.
+     */
+    public CharSequence getValueCS()
+    {
+        return myNode.getStringValueCS();
+    }
+
+    /**
+     * Parse the value as an {@code xs:boolean}.
+     *
+     * Parse directly from the characters of the value, without creating any
+     * intermediary Saxon value.
+     */
     @Override
     public boolean getBoolean()
             throws ToolsException
     {
-        String str = myNode.getStringValue();
-        AtomicValue val;
-        try {
-            val = BooleanValue.fromString(str).asAtomic();
+        CharSequence str = myNode.getStringValueCS();
+        int start = trimStart(str);
+        int end   = trimEnd(str, start);
+        int len   = end - start;
+        if ( len == 1 ) {
+            char c = str.charAt(start);
+            if ( c == '1' ) {
+                return true;
+            }
+            else if ( c == '0' ) {
+                return false;
+            }
         }
-        catch ( XPathException ex ) {
-            throw new ToolsException("Error parse the attribute value as boolean", ex);
+        else if ( len == 4 && matches(str, start, "true") ) {
+            return true;
         }
-        if ( ! ( val instanceof BooleanValue ) ) {
-            throw new ToolsException("@" + getLocalName() + " is not a boolean");
+        else if ( len == 5 && matches(str, start, "false") ) {
+            return false;
         }
-        BooleanValue b = (BooleanValue) val;
-        return b.getBooleanValue();
+        throw new ToolsException("@" + getLocalName() + " is not a boolean: " + str);
     }
 
     @Override
     public int getInteger()
             throws ToolsException
     {
-        String str = myNode.getStringValue();
-        NumericValue val = NumericValue.parseNumber(str);
-        if ( NumericValue.isInteger(val) ) {
-            throw new ToolsException("@" + getLocalName() + " is not an integer");
+        return getInt();
+    }
+
+    /**
+     * Parse the value as an {@code xs:integer}, which must fit in an int.
+     */
+    public int getInt()
+            throws ToolsException
+    {
+        long l = getLong();
+        if ( l < Integer.MIN_VALUE || l > Integer.MAX_VALUE ) {
+            throw new ToolsException("@" + getLocalName() + " is out of the int range: " + l);
+        }
+        return (int) l;
+    }
+
+    /**
+     * Parse the value as an {@code xs:integer}, which must fit in a long.
+     *
+     * Parse directly from the characters of the value, without creating any
+     * intermediary Saxon value.
+     */
+    public long getLong()
+            throws ToolsException
+    {
+        CharSequence str = myNode.getStringValueCS();
+        int start = trimStart(str);
+        int end   = trimEnd(str, start);
+        if ( start == end ) {
+            throw new ToolsException("@" + getLocalName() + " is not an integer: " + str);
+        }
+        boolean negative = false;
+        char first = str.charAt(start);
+        if ( first == '-' || first == '+' ) {
+            negative = first == '-';
+            ++start;
+            if ( start == end ) {
+                throw new ToolsException("@" + getLocalName() + " is not an integer: " + str);
+            }
+        }
+        // accumulate negatively, to be able to represent Long.MIN_VALUE
+        long result = 0;
+        for ( int i = start; i < end; ++i ) {
+            char c = str.charAt(i);
+            if ( c < '0' || c > '9' ) {
+                throw new ToolsException("@" + getLocalName() + " is not an integer: " + str);
+            }
+            int digit = c - '0';
+            if ( result < (Long.MIN_VALUE + digit) / 10 ) {
+                throw new ToolsException("@" + getLocalName() + " is out of the long range: " + str);
+            }
+            result = result * 10 - digit;
+        }
+        if ( negative ) {
+            return result;
+        }
+        if ( result == Long.MIN_VALUE ) {
+            throw new ToolsException("@" + getLocalName() + " is out of the long range: " + str);
+        }
+        return -result;
+    }
+
+    /**
+     * Parse the value as an {@code xs:double}.
+     *
+     * Accept the XML Schema lexical forms only (including {@code INF},
+     * {@code -INF} and {@code NaN}), not the Java ones.
+     */
+    public double getDouble()
+            throws ToolsException
+    {
+        CharSequence str = myNode.getStringValueCS();
+        int start = trimStart(str);
+        int end   = trimEnd(str, start);
+        int len   = end - start;
+        if ( len == 3 && matches(str, start, "INF") ) {
+            return Double.POSITIVE_INFINITY;
+        }
+        else if ( len == 4 && matches(str, start, "-INF") ) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        else if ( len == 4 && matches(str, start, "+INF") ) {
+            return Double.POSITIVE_INFINITY;
+        }
+        else if ( len == 3 && matches(str, start, "NaN") ) {
+            return Double.NaN;
+        }
+        boolean digits = false;
+        for ( int i = start; i < end; ++i ) {
+            char c = str.charAt(i);
+            if ( c >= '0' && c <= '9' ) {
+                digits = true;
+            }
+            else if ( c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E' ) {
+                throw new ToolsException("@" + getLocalName() + " is not a double: " + str);
+            }
+        }
+        if ( ! digits ) {
+            throw new ToolsException("@" + getLocalName() + " is not a double: " + str);
+        }
+        try {
+            return Double.parseDouble(str.subSequence(start, end).toString());
+        }
+        catch ( NumberFormatException ex ) {
+            throw new ToolsException("@" + getLocalName() + " is not a double: " + str, ex);
+        }
+    }
+
+    private static int trimStart(CharSequence str)
+    {
+        int i = 0;
+        while ( i < str.length() && Whitespace.isWhite(str.charAt(i)) ) {
+            ++i;
         }
-        IntegerValue i = (IntegerValue) val;
-        return i.asBigInteger().intValue();
+        return i;
+    }
+
+    private static int trimEnd(CharSequence str, int start)
+    {
+        int i = str.length();
+        while ( i > start && Whitespace.isWhite(str.charAt(i - 1)) ) {
+            --i;
+        }
+        return i;
+    }
+
+    private static boolean matches(CharSequence str, int start, String expected)
+    {
+        for ( int i = 0; i < expected.length(); ++i ) {
+            if ( str.charAt(start + i) != expected.charAt(i) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move this object to another attribute node, as used by {@link AttributeCursor}.
+     */
+    void moveTo(NodeInfo node)
+    {
+        myNode = node;
     }
 
-    private final NodeInfo myNode;
+    private NodeInfo myNode;
 }
 
 
@@ -9,22 +9,17 @@
 
 package org.expath.tools.saxon.model;
 
-import java.util.Arrays;
 import java.util.Iterator;
 import javax.xml.namespace.QName;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.om.AxisInfo;
-import net.sf.saxon.om.InscopeNamespaceResolver;
+import net.sf.saxon.om.Item;
 import net.sf.saxon.om.NamePool;
-import net.sf.saxon.om.NamespaceResolver;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.SequenceIterator;
-import net.sf.saxon.om.StructuredQName;
-import net.sf.saxon.pattern.NameTest;
 import net.sf.saxon.pattern.NamespaceTest;
 import net.sf.saxon.pattern.NodeKindTest;
 import net.sf.saxon.pattern.NodeTest;
-import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.tree.iter.AxisIterator;
 import net.sf.saxon.type.Type;
 import org.expath.tools.ToolsException;
@@ -74,25 +69,37 @@ public class SaxonElement
     @Override
     public String getAttribute(String local_name)
     {
-        // get the attribute
+        // a name not in the pool cannot be the name of any attribute
         NamePool pool = myNode.getConfiguration().getNamePool();
-        NodeTest pred = new NameTest(Type.ATTRIBUTE, "", local_name, pool);
-        AxisIterator attrs = myNode.iterateAxis(AxisInfo.ATTRIBUTE, pred);
-        NodeInfo a = (NodeInfo) attrs.next();
-        // return its string value, or null if there is no such attribute
-        if ( a == null ) {
-            return null;
-        }
-        else {
-            return a.getStringValue();
-        }
+        int fingerprint = pool.getFingerprint("", local_name);
+        return getAttribute(fingerprint);
+    }
+
+    /**
+     * Return the value of the attribute with {@code fingerprint}, or null.
+     *
+     * The attributes are indexed on the first lookup, subsequent calls do not
+     * walk the attribute axis anymore.
+     */
+    public String getAttribute(int fingerprint)
+    {
+        AttributeIndex index = attributeIndex();
+        int pos = index.position(fingerprint);
+        return pos < 0 ? null : index.value(pos);
     }
 
     @Override
     public Iterable<Attribute> attributes()
     {
-        AxisIterator it = myNode.iterateAxis(AxisInfo.ATTRIBUTE);
-        return new AttributeIterable(it);
+        return new AttributeIterable(attributeIndex());
+    }
+
+    AttributeIndex attributeIndex()
+    {
+        if ( myAttrIndex == null ) {
+            myAttrIndex = AttributeIndex.build(myNode);
+        }
+        return myAttrIndex;
     }
 
     @Override
@@ -104,6 +111,12 @@ public class SaxonElement
         return next != null;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * For an element validated on every call of a function, prefer creating
+     * an {@link ElementShape} once and calling {@link #validate(ElementShape)}.
+     */
     @Override
     public void noOtherNCNameAttribute(String[] names, String[] forbidden_ns)
             throws ToolsException
@@ -114,34 +127,60 @@ public class SaxonElement
         if ( forbidden_ns == null ) {
             forbidden_ns = new String[] { };
         }
-        String[] sorted_names = sortCopy(names);
-        String[] sorted_ns = sortCopy(forbidden_ns);
         String elem_name = myNode.getDisplayName();
         AxisIterator it = myNode.iterateAxis(AxisInfo.ATTRIBUTE);
         NodeInfo attr;
         while ( (attr = (NodeInfo) it.next()) != null ) {
             String attr_name = attr.getDisplayName();
             String ns = attr.getURI();
-            if ( Arrays.binarySearch(sorted_ns, ns) >= 0 ) {
+            if ( contains(forbidden_ns, ns) ) {
                 throw new ToolsException("@" + attr_name + " in namespace " + ns + " not allowed on " + elem_name);
             }
             else if ( ! "".equals(ns) ) {
                 // ignore other-namespace-attributes
             }
-            else if ( Arrays.binarySearch(sorted_names, attr.getLocalPart()) < 0 ) {
+            else if ( ! contains(names, attr.getLocalPart()) ) {
                 throw new ToolsException("@" + attr_name + " not allowed on " + elem_name);
             }
         }
     }
 
-    private String[] sortCopy(String[] array)
+    private boolean contains(String[] array, String value)
     {
-        String[] sorted = new String[array.length];
-        for ( int i = 0; i < array.length; ++i ) {
-            sorted[i] = array[i];
+        // the arrays are small, scanning is cheaper than copying and sorting
+        for ( String s : array ) {
+            if ( value.equals(s) ) {
+                return true;
+            }
         }
-        Arrays.sort(sorted);
-        return sorted;
+        return false;
+    }
+
+    /**
+     * Validate this element against a precompiled shape.
+     *
+     * @throws ToolsException If this element does not respect {@code shape}.
+     */
+    public void validate(ElementShape shape)
+            throws ToolsException
+    {
+        shape.validate(this);
+    }
+
+    /**
+     * Return the underlying Saxon node.
+     */
+    public NodeInfo getNode()
+    {
+        return myNode;
+    }
+
+    /**
+     * Return the context this element has been created with.
+     */
+    public XPathContext getContext()
+    {
+        return myCtxt;
     }
 
     @Override
@@ -154,78 +193,156 @@ public class SaxonElement
     @Override
     public Iterable<Element> children()
     {
-        AxisIterator it = myNode.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT);
-        return new ElemIterable(it);
+        return new ElemIterable(NodeKindTest.ELEMENT);
     }
 
     @Override
     public Iterable<Element> children(String ns)
+    {
+        return new ElemIterable(namespaceTest(ns));
+    }
+
+    /**
+     * Return a cursor on the child elements.
+     *
+     * Contrary to {@link #children()}, the cursor reuses one single element
+     * object for all the children, instead of creating one per child.
+     */
+    public ElementCursor childCursor()
+    {
+        AxisIterator it = myNode.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT);
+        return new ElementCursor(it, myCtxt);
+    }
+
+    /**
+     * Return a cursor on the child elements in the namespace {@code ns}.
+     *
+     * Contrary to {@link #children(String)}, the cursor reuses one single
+     * element object for all the children, instead of creating one per child.
+     */
+    public ElementCursor childCursor(String ns)
+    {
+        AxisIterator it = myNode.iterateAxis(AxisInfo.CHILD, namespaceTest(ns));
+        return new ElementCursor(it, myCtxt);
+    }
+
+    /**
+     * Return a cursor on the attributes.
+     *
+     * Contrary to {@link #attributes()}, the cursor reuses one single
+     * attribute object for all the attributes, instead of creating one per
+     * attribute.
+     */
+    public AttributeCursor attributeCursor()
+    {
+        return new AttributeCursor(attributeIndex());
+    }
+
+    /**
+     * Return the child elements as a range that can be split for parallel processing.
+     */
+    public SiblingRange<Element> childRange()
+    {
+        AxisIterator it = myNode.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT);
+        return SiblingRange.elements(it, myCtxt);
+    }
+
+    /**
+     * Return the child elements in {@code ns} as a range that can be split for parallel processing.
+     */
+    public SiblingRange<Element> childRange(String ns)
+    {
+        AxisIterator it = myNode.iterateAxis(AxisInfo.CHILD, namespaceTest(ns));
+        return SiblingRange.elements(it, myCtxt);
+    }
+
+    /**
+     * Return the child nodes as a range that can be split for parallel processing.
+     */
+    public SiblingRange<Item> contentRange()
+    {
+        AxisIterator it = myNode.iterateAxis(AxisInfo.CHILD);
+        return SiblingRange.items(it);
+    }
+
+    private NodeTest namespaceTest(String ns)
     {
         NamePool pool = myNode.getConfiguration().getNamePool();
-        NodeTest pred = new NamespaceTest(pool, Type.ELEMENT, ns);
-        AxisIterator it = myNode.iterateAxis(AxisInfo.CHILD, pred);
-        return new ElemIterable(it);
+        return new NamespaceTest(pool, Type.ELEMENT, ns);
     }
 
+    /**
+     * Move this object to another element node, as used by {@link ElementCursor}.
+     */
+    void moveTo(NodeInfo node)
+    {
+        myNode = node;
+        myAttrIndex = null;
+        myQNames = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The resolved QNames are cached per document, see {@link QNameCache}.
+     */
     @Override
     public QName parseQName(String value)
             throws ToolsException
     {
-        try {
-            NamespaceResolver resolver = new InscopeNamespaceResolver(myNode);
-            StructuredQName name = StructuredQName.fromLexicalQName(value, true, false, resolver);
-            return name.toJaxpQName();
-        }
-        catch ( XPathException ex ) {
-            throw new ToolsException("Error parsing the literal QName: " + value, ex);
+        if ( myQNames == null ) {
+            myQNames = QNameCache.forDocument(myNode).scope(myNode);
         }
+        return myQNames.parse(value);
     }
 
     private NodeInfo myNode;
     private XPathContext myCtxt;
+    /** Lazily built, on the first attribute lookup. */
+    private AttributeIndex myAttrIndex;
+    /** Lazily resolved, on the first QName parsing. */
+    private QNameCache.Scope myQNames;
 
     private static class AttributeIterable
             implements Iterable<Attribute>
     {
-        public AttributeIterable(AxisIterator it)
+        public AttributeIterable(AttributeIndex index)
         {
-            myIter = new AttributeIteratorWrapper(it);
+            myIndex = index;
         }
 
         @Override
         public Iterator<Attribute> iterator()
         {
-            return myIter;
+            return new AttributeIteratorWrapper(myIndex);
         }
 
-        private final Iterator myIter;
+        private final AttributeIndex myIndex;
     }
 
     private static class AttributeIteratorWrapper
             implements Iterator<Attribute>
     {
-        public AttributeIteratorWrapper(AxisIterator it)
+        public AttributeIteratorWrapper(AttributeIndex index)
         {
-            myIter = it;
-            myNext = (NodeInfo) it.next();
+            myIndex = index;
+            myPos = 0;
         }
 
         @Override
         public boolean hasNext()
         {
-            return myNext != null;
+            return myPos < myIndex.size();
         }
 
         @Override
         public Attribute next()
         {
-            if ( myNext == null ) {
+            if ( myPos >= myIndex.size() ) {
                 // TODO: Throw an exception instead?
                 return null;
             }
-            Attribute a = new SaxonAttribute(myNext);
-            myNext = (NodeInfo) myIter.next();
-            return a;
+            return new SaxonAttribute(myIndex.node(myPos++));
         }
 
         @Override
@@ -234,25 +351,30 @@ public class SaxonElement
             throw new UnsupportedOperationException("remove() is not supported");
         }
 
-        private final AxisIterator myIter;
-        private NodeInfo myNext;
+        private final AttributeIndex myIndex;
+        private int myPos;
     }
 
     private class ElemIterable
             implements Iterable<Element>
     {
-        public ElemIterable(AxisIterator it)
+        public ElemIterable(NodeTest test)
         {
-            myIter = new ElemIteratorWrapper(it);
+            // capture the node, this element can be moved by a cursor
+            myParent = myNode;
+            myTest = test;
         }
 
         @Override
         public Iterator<Element> iterator()
         {
-            return myIter;
+            // a new axis iterator each time, so the iterable can be reused
+            AxisIterator it = myParent.iterateAxis(AxisInfo.CHILD, myTest);
+            return new ElemIteratorWrapper(it);
         }
 
-        private final Iterator myIter;
+        private final NodeInfo myParent;
+        private final NodeTest myTest;
     }
 
     private class ElemIteratorWrapper
@@ -9,25 +9,64 @@
 
 package org.expath.tools.saxon.model;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
-import javax.xml.namespace.QName;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
 import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.SequenceReceiver;
+import net.sf.saxon.expr.LastPositionFinder;
+import net.sf.saxon.expr.SubsequenceIterator;
+import net.sf.saxon.expr.TailIterator;
 import net.sf.saxon.expr.XPathContext;
-import net.sf.saxon.lib.SaxonOutputKeys;
+import net.sf.saxon.expr.parser.ExplicitLocation;
+import net.sf.saxon.om.CopyOptions;
+import net.sf.saxon.om.GroundedValue;
 import net.sf.saxon.om.Item;
+import net.sf.saxon.om.MemoSequence;
 import net.sf.saxon.om.SequenceIterator;
-import net.sf.saxon.query.QueryResult;
+import net.sf.saxon.serialize.CharacterMapIndex;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.GroundedIterator;
+import net.sf.saxon.tree.iter.LookaheadIterator;
 import net.sf.saxon.tree.iter.SingletonIterator;
 import org.expath.tools.ToolsException;
 import org.expath.tools.model.Sequence;
+import org.expath.tools.saxon.serial.ChannelOutputStream;
+import org.expath.tools.saxon.serial.Compression;
+import org.expath.tools.saxon.serial.FlushPolicy;
+import org.expath.tools.saxon.serial.SerialProfile;
+import org.expath.tools.saxon.serial.SerialPublisher;
+import org.expath.tools.saxon.serial.TeeOutputStream;
 import org.expath.tools.serial.SerialParameters;
 
 /**
  * Saxon implementation of {@link Sequence}, relying on {@link SequenceIterator}.
  *
+ * By default, the sequence is evaluated lazily, through the iterator it has
+ * been created with.  In memoizing mode, each item is evaluated at most once,
+ * and kept in memory to be replayed: {@link #isEmpty()} and
+ * {@link #serialize(OutputStream, SerialParameters)} then always see the
+ * whole sequence, whatever {@link #next()} has already consumed.  This is
+ * useful when the sequence is expensive to evaluate (e.g. {@code doc()} or
+ * HTTP calls) and both tested for emptiness and serialized.
+ *
+ * A sequence created with {@link #ground(SequenceIterator, XPathContext, long)}
+ * is evaluated entirely upfront, like in memoizing mode, but only its first
+ * items are kept in memory, up to a given size.  The rest is spilled to a
+ * temporary file, and read back lazily.  Call {@link #release()} to delete the
+ * file as soon as the sequence is not needed anymore, it is not deleted
+ * otherwise (not even when the JVM exits).
+ *
  * @author Florent Georges
  */
 public class SaxonSequence
@@ -35,16 +74,106 @@ public class SaxonSequence
 {
     public SaxonSequence(SequenceIterator it, XPathContext ctxt)
     {
-        myIt = it;
+        this(it, ctxt, false);
+    }
+
+    /**
+     * @param memoize Whether to evaluate each item at most once, see the class documentation.
+     */
+    public SaxonSequence(SequenceIterator it, XPathContext ctxt, boolean memoize)
+    {
         myCtxt = ctxt;
+        if ( memoize && it != null ) {
+            myMemo = new MemoSequence(it);
+            try {
+                myIt = myMemo.iterate();
+            }
+            catch ( XPathException ex ) {
+                // cannot happen, iterate() does not evaluate anything yet
+                throw new IllegalStateException("Error iterating a memo sequence", ex);
+            }
+        }
+        else {
+            myMemo = null;
+            myIt = it;
+        }
+        mySpill = null;
+    }
+
+    private SaxonSequence(SpillBuffer spill, XPathContext ctxt)
+    {
+        myCtxt = ctxt;
+        myMemo = null;
+        mySpill = spill;
+        myIt = spill.iterate();
+    }
+
+    /**
+     * Evaluate a sequence entirely, keeping at most {@code memory_limit} bytes in memory.
+     *
+     * The items beyond the limit are spilled to a temporary file, in a compact
+     * binary format, and read back lazily by {@link #next()} and
+     * {@link #serialize(OutputStream, SerialParameters)}.  The size of the
+     * items in memory is estimated, not measured.  The spilled nodes are
+     * copies, without their original identity nor ancestors.
+     *
+     * @param memory_limit The limit, in bytes (e.g. {@code 64L * 1024 * 1024}).
+     */
+    public static SaxonSequence ground(SequenceIterator it, XPathContext ctxt, long memory_limit)
+            throws ToolsException
+    {
+        if ( it == null ) {
+            return new SaxonSequence((SequenceIterator) null, ctxt);
+        }
+        try {
+            return new SaxonSequence(SpillBuffer.ground(it, ctxt.getConfiguration(), memory_limit), ctxt);
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error evaluating the sequence to ground", ex);
+        }
+        catch ( IOException ex ) {
+            throw new ToolsException("Error spilling the sequence to disk", ex);
+        }
     }
 
+    /**
+     * Delete the temporary file of a sequence created by {@link #ground(SequenceIterator, XPathContext, long)}.
+     *
+     * The spilled items cannot be accessed anymore afterwards.  Does nothing
+     * for other sequences.
+     */
+    public void release()
+    {
+        if ( mySpill != null ) {
+            mySpill.release();
+        }
+    }
+
+    /**
+     * Whether the whole sequence is empty, regardless of the items already consumed by {@link #next()}.
+     */
     @Override
     public boolean isEmpty()
             throws ToolsException
     {
         try {
-            return myIt == null || myIt.getAnother().next() == null;
+            if ( myIt == null ) {
+                return true;
+            }
+            else if ( myMemo != null ) {
+                // evaluates the first item at most once, then replays it
+                return myMemo.head() == null;
+            }
+            else if ( mySpill != null ) {
+                return mySpill.getLength() == 0;
+            }
+            else if ( ! myConsumed && (myIt.getProperties() & SequenceIterator.LOOKAHEAD) != 0 ) {
+                // no need to evaluate anything again, and nothing consumed yet
+                return ! ((LookaheadIterator) myIt).hasNext();
+            }
+            else {
+                return myIt.getAnother().next() == null;
+            }
         }
         catch ( XPathException ex ) {
             throw new ToolsException("Error getting another iterator", ex);
@@ -55,167 +184,511 @@ public class SaxonSequence
     public Sequence next()
             throws ToolsException
     {
-        Item item;
+        Item item = nextItem();
+        SequenceIterator it = SingletonIterator.makeIterator(item);
+        return new SaxonSequence(it, myCtxt);
+    }
+
+    /**
+     * Return the next item, without wrapping it in a new sequence object.
+     *
+     * @return The next item, or null if there is no more item.
+     */
+    public Item nextItem()
+            throws ToolsException
+    {
         try {
-            item = myIt == null ? null : myIt.next();
+            if ( myIt == null ) {
+                return null;
+            }
+            myConsumed = true;
+            return myIt.next();
         }
         catch ( XPathException ex ) {
             throw new ToolsException("Error getting the next item in the sequence", ex);
         }
-        SequenceIterator it = SingletonIterator.makeIterator(item);
-        return new SaxonSequence(it, myCtxt);
     }
 
-    @Override
-    public void serialize(OutputStream out, SerialParameters params)
+    /**
+     * Return the number of items in the whole sequence.
+     *
+     * Constant time if the sequence is grounded or its iterator knows its
+     * length, a linear scan otherwise.  As all the positional accessors,
+     * positions are relative to the whole sequence, regardless of the items
+     * already consumed by {@link #next()}.
+     */
+    public int size()
             throws ToolsException
     {
-        Properties props = params == null ? null : makeOutputProperties(params);
-        Configuration config = myCtxt.getConfiguration();
         try {
-            QueryResult.serializeSequence(myIt, config, out, props);
+            if ( myIt == null ) {
+                return 0;
+            }
+            GroundedValue value = grounded();
+            if ( value != null ) {
+                return value.getLength();
+            }
+            SequenceIterator it = restart();
+            if ( (it.getProperties() & SequenceIterator.LAST_POSITION_FINDER) != 0 ) {
+                return ((LastPositionFinder) it).getLength();
+            }
+            int count = 0;
+            while ( it.next() != null ) {
+                ++count;
+            }
+            return count;
         }
         catch ( XPathException ex ) {
-            throw new ToolsException("Error serializing the sequence", ex);
+            throw new ToolsException("Error computing the size of the sequence", ex);
         }
     }
 
-    // TODO: This is really an old way to do this!  Using strings...  Should
-    // really switch to S9API...
-    private Properties makeOutputProperties(SerialParameters params)
+    /**
+     * Return the pos-th item of the whole sequence (0-based), or null.
+     */
+    public Item itemAt(int pos)
             throws ToolsException
     {
-        Properties props = new Properties();
+        if ( myIt == null || pos < 0 ) {
+            return null;
+        }
+        try {
+            GroundedValue value = grounded();
+            if ( value != null ) {
+                return value.itemAt(pos);
+            }
+            SequenceIterator it = restart();
+            Item item = it.next();
+            for ( int i = 0; i < pos && item != null; ++i ) {
+                item = it.next();
+            }
+            it.close();
+            return item;
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error accessing the item " + pos + " of the sequence", ex);
+        }
+    }
 
-        setOutputKey(props, OutputKeys.METHOD,                 params.getMethod());
-        setOutputKey(props, OutputKeys.MEDIA_TYPE,             params.getMediaType());
-        setOutputKey(props, OutputKeys.ENCODING,               params.getEncoding());
-        setOutputKey(props, OutputKeys.CDATA_SECTION_ELEMENTS, params.getCdataSectionElements());
-        setOutputKey(props, OutputKeys.DOCTYPE_PUBLIC,         params.getDoctypePublic());
-        setOutputKey(props, OutputKeys.DOCTYPE_SYSTEM,         params.getDoctypeSystem());
-        setOutputKey(props, OutputKeys.INDENT,                 params.getIndent());
-        setOutputKey(props, OutputKeys.OMIT_XML_DECLARATION,   params.getOmitXmlDeclaration());
-        setOutputKey(props, OutputKeys.STANDALONE,             params.getStandalone());
-        setOutputKey(props, OutputKeys.VERSION,                params.getVersion());
+    /**
+     * Return the sequence without its first {@code n} items.
+     */
+    public SaxonSequence skip(int n)
+            throws ToolsException
+    {
+        return window(n, -1);
+    }
 
-        setOutputKey(props, SaxonOutputKeys.BYTE_ORDER_MARK,       params.getByteOrderMark());
-        setOutputKey(props, SaxonOutputKeys.ESCAPE_URI_ATTRIBUTES, params.getEscapeUriAttributes());
-        setOutputKey(props, SaxonOutputKeys.INCLUDE_CONTENT_TYPE,  params.getIncludeContentType());
-        setOutputKey(props, SaxonOutputKeys.NORMALIZATION_FORM,    params.getNormalizationForm());
-        setOutputKey(props, SaxonOutputKeys.UNDECLARE_PREFIXES,    params.getUndeclarePrefixes());
-        Iterable<SerialParameters.UseChar> maps = params.getUseCharacterMaps();
-        if ( maps != null ) {
-            if ( maps.iterator().hasNext() ) {
-                // TODO: How are we supposed to pass this param through a string property?
-                throw new ToolsException("Use character map serialization parameter is not supported");
+    /**
+     * Return the {@code length} items of the whole sequence starting at {@code offset} (0-based).
+     *
+     * A grounded sequence is sliced directly, otherwise the resulting
+     * sequence is evaluated lazily, skipping {@code offset} items.
+     *
+     * @param length The maximum number of items, or a negative number for all
+     *     the remaining items.
+     */
+    public SaxonSequence window(int offset, int length)
+            throws ToolsException
+    {
+        if ( offset < 0 ) {
+            throw new IllegalArgumentException("The offset cannot be negative: " + offset);
+        }
+        if ( myIt == null || length == 0 ) {
+            return new SaxonSequence((SequenceIterator) null, myCtxt);
+        }
+        try {
+            GroundedValue value = grounded();
+            if ( value != null ) {
+                int len = length < 0 ? Integer.MAX_VALUE : length;
+                return new SaxonSequence(value.subsequence(offset, len).iterate(), myCtxt);
+            }
+            SequenceIterator it = restart();
+            if ( length < 0 || length > Integer.MAX_VALUE - offset - 1 ) {
+                // all the remaining items (also avoids overflowing the end position)
+                it = TailIterator.make(it, offset + 1);
+            }
+            else {
+                it = SubsequenceIterator.make(it, offset + 1, offset + length);
+            }
+            return new SaxonSequence(it, myCtxt);
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error accessing a window of the sequence", ex);
+        }
+    }
+
+    /**
+     * The whole sequence as a grounded value, or null if it is not grounded.
+     */
+    private GroundedValue grounded()
+            throws XPathException
+    {
+        if ( myMemo == null && (myIt.getProperties() & SequenceIterator.GROUNDED) != 0 ) {
+            SequenceIterator it = myIt.getAnother();
+            if ( it instanceof GroundedIterator ) {
+                return ((GroundedIterator) it).materialize();
             }
         }
+        return null;
+    }
 
-        setExtensionKey(props, params, SaxonOutputKeys.CHARACTER_REPRESENTATION);
-        setExtensionKey(props, params, SaxonOutputKeys.DOUBLE_SPACE);
-        setExtensionKey(props, params, SaxonOutputKeys.INDENT_SPACES);
-        setExtensionKey(props, params, SaxonOutputKeys.LINE_LENGTH);
-        setExtensionKey(props, params, SaxonOutputKeys.RECOGNIZE_BINARY);
-        setExtensionKey(props, params, SaxonOutputKeys.REQUIRE_WELL_FORMED);
-        setExtensionKey(props, params, SaxonOutputKeys.STYLESHEET_VERSION);
-        setExtensionKey(props, params, SaxonOutputKeys.SUPPRESS_INDENTATION);
-        setExtensionKey(props, params, SaxonOutputKeys.WRAP);
+    /**
+     * A new iterator on the whole sequence (replaying it in memoizing mode).
+     */
+    private SequenceIterator restart()
+            throws XPathException
+    {
+        return myMemo == null ? myIt.getAnother() : myMemo.iterate();
+    }
 
-        return props;
+    /**
+     * The iterator to serialize, replaying the whole sequence in memoizing and spilling modes.
+     */
+    private SequenceIterator serializable()
+            throws XPathException
+    {
+        if ( myMemo != null ) {
+            return myMemo.iterate();
+        }
+        else if ( mySpill != null ) {
+            return mySpill.iterate();
+        }
+        else {
+            myConsumed = true;
+            return myIt;
+        }
     }
 
-    private QName parseClarkNotation(String clark)
+    /**
+     * Serialize to a stream, through an {@link EncodingWriter} when the encoding supports it.
+     */
+    static void serializeSequence(SequenceIterator it, Configuration config, OutputStream out, Properties props,
+                                  CharacterMapIndex maps)
+            throws XPathException, IOException
     {
-        if ( clark.startsWith("{") ) {
-            int idx = clark.indexOf('}');
-            String uri = clark.substring(1, idx);
-            String local = clark.substring(idx + 1);
-            return new QName(uri, local);
+        EncodingWriter writer = EncodingWriter.forEncoding(out, props.getProperty(OutputKeys.ENCODING));
+        if ( writer == null ) {
+            serializeSequence(it, config, new StreamResult(out), props, maps);
         }
         else {
-            return new QName(clark);
+            serializeSequence(it, config, new StreamResult(writer), props, maps);
+            writer.close();
         }
     }
 
-    private void setExtensionKey(Properties props, SerialParameters params, String name)
+    /**
+     * Like {@code QueryResult.serializeSequence()}, with character maps.
+     *
+     * @param maps The character maps, or null if there is none.
+     */
+    static void serializeSequence(SequenceIterator it, Configuration config, Result result, Properties props,
+                                  CharacterMapIndex maps)
+            throws XPathException
+    {
+        SequenceReceiver receiver = config.getSerializerFactory().getReceiver(
+                result, makePipeline(config, maps), props, maps);
+        receiver.open();
+        Item item;
+        while ( (item = it.next()) != null ) {
+            receiver.append(item, ExplicitLocation.UNKNOWN_LOCATION, CopyOptions.ALL_NAMESPACES);
+        }
+        receiver.close();
+    }
+
+    /**
+     * A pipeline configuration for a serializer using {@code maps}.
+     *
+     * Saxon refuses character maps in a pipeline with no controller, so one
+     * is created when {@code maps} is not null.
+     */
+    static PipelineConfiguration makePipeline(Configuration config, CharacterMapIndex maps)
+    {
+        PipelineConfiguration pipe = config.makePipelineConfiguration();
+        if ( maps != null ) {
+            pipe.setController(new Controller(config));
+        }
+        return pipe;
+    }
+
+    @Override
+    public void serialize(OutputStream out, SerialParameters params)
+            throws ToolsException
+    {
+        serialize(out, SerialProfile.compile(params));
+    }
+
+    /**
+     * Serialize the sequence with parameters already compiled.
+     *
+     * Compiling the parameters reads all of them to look the profile up in
+     * the cache, so callers serializing often with the same parameters can
+     * compile them once, and keep the profile.
+     */
+    public void serialize(OutputStream out, SerialProfile profile)
             throws ToolsException
     {
-        QName qname = parseClarkNotation(name);
-        String value = params.getExtension(qname);
-        if ( value != null ) {
-            props.setProperty(name, value);
+        Properties props = profile.getOutputProperties();
+        Configuration config = myCtxt.getConfiguration();
+        if ( myIt == null ) {
+            // the empty sequence (e.g. an empty window), nothing to serialize
+            return;
+        }
+        try {
+            TextSerializer text = TextSerializer.forProperties(props);
+            if ( text != null ) {
+                text.serialize(serializable(), out, config);
+            }
+            else {
+                serializeSequence(serializable(), config, out, props, profile.getCharacterMaps());
+            }
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error serializing the sequence", ex);
+        }
+        catch ( IOException ex ) {
+            throw new ToolsException("Error writing the serialized sequence", ex);
         }
     }
 
-    private void setOutputKey(Properties props, String name, String value)
+    /**
+     * Serialize the sequence to a writer, without encoding it to bytes.
+     *
+     * The encoding parameter is only used for the XML declaration, and to
+     * decide which characters to output as character references.
+     */
+    public void serialize(Writer out, SerialParameters params)
             throws ToolsException
     {
-        if ( value != null ) {
-            props.setProperty(name, value);
+        serialize(out, SerialProfile.compile(params));
+    }
+
+    /**
+     * Like {@link #serialize(Writer, SerialParameters)}, with parameters already compiled.
+     */
+    public void serialize(Writer out, SerialProfile profile)
+            throws ToolsException
+    {
+        Configuration config = myCtxt.getConfiguration();
+        try {
+            if ( myIt != null ) {
+                serializeSequence(serializable(), config, new StreamResult(out),
+                        profile.getOutputProperties(), profile.getCharacterMaps());
+            }
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error serializing the sequence", ex);
         }
     }
 
-    private void setOutputKey(Properties props, String name, Boolean value)
+    /**
+     * Serialize the sequence to a string.
+     *
+     * Like {@link #serialize(Writer, SerialParameters)}, into a character
+     * buffer reused by each thread.
+     */
+    public String serializeToString(SerialParameters params)
             throws ToolsException
     {
-        if ( value != null ) {
-            props.setProperty(name, value ? "yes" : "no");
+        return serializeToString(SerialProfile.compile(params));
+    }
+
+    /**
+     * Like {@link #serializeToString(SerialParameters)}, with parameters already compiled.
+     */
+    public String serializeToString(SerialProfile profile)
+            throws ToolsException
+    {
+        PooledStringWriter out = PooledStringWriter.acquire();
+        try {
+            serialize(out, profile);
+            return out.toString();
         }
+        finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Serialize the sequence to several sinks at once, computing digests in the same pass.
+     *
+     * @param sinks The streams to write to, left open (can be empty).
+     * @param digests The digests to compute, see {@link TeeOutputStream}
+     *     (e.g. {@code SHA-256} or {@code CRC32}).
+     * @return The number of bytes, and the digests, of the serialization.
+     */
+    public TeeOutputStream.Result serialize(OutputStream[] sinks, SerialParameters params, String[] digests)
+            throws ToolsException
+    {
+        TeeOutputStream tee;
+        try {
+            tee = new TeeOutputStream(sinks, digests);
+        }
+        catch ( NoSuchAlgorithmException ex ) {
+            throw new ToolsException("Unsupported digest algorithm", ex);
+        }
+        serialize(tee, params);
+        try {
+            tee.close();
+        }
+        catch ( IOException ex ) {
+            throw new ToolsException("Error flushing the serialized sequence", ex);
+        }
+        return tee.getResult();
     }
 
-    private void setOutputKey(Properties props, String name, SerialParameters.Standalone value)
+    /**
+     * Serialize the sequence, flushing the output according to {@code policy}.
+     *
+     * The output is flushed down to {@code out} (calling its {@code flush()}),
+     * so the first bytes reach a streaming client as soon as possible.
+     *
+     * @see FlushPolicy
+     */
+    public void serialize(OutputStream out, SerialParameters params, FlushPolicy policy)
             throws ToolsException
     {
-        if ( value != null ) {
-            switch ( value ) {
-                case YES:
-                    props.setProperty(name, "yes");
-                    break;
-                case NO:
-                    props.setProperty(name, "no");
-                    break;
-                case OMIT:
-                    props.setProperty(name, "omit");
-                    break;
-                default:
-                    throw new ToolsException("Invalid Standalone value: " + value);
+        SerialProfile profile = SerialProfile.compile(params);
+        Properties props = profile.getOutputProperties();
+        Configuration config = myCtxt.getConfiguration();
+        try {
+            String encoding = props.getProperty(OutputKeys.ENCODING, "UTF-8");
+            FlushingWriter writer = new FlushingWriter(out, encoding, policy);
+            CharacterMapIndex maps = profile.getCharacterMaps();
+            SequenceReceiver receiver = config.getSerializerFactory().getReceiver(
+                    new StreamResult(writer), makePipeline(config, maps), props, maps);
+            SequenceIterator it = serializable();
+            receiver.open();
+            Item item;
+            while ( it != null && (item = it.next()) != null ) {
+                receiver.append(item, ExplicitLocation.UNKNOWN_LOCATION, CopyOptions.ALL_NAMESPACES);
+                writer.endItem();
             }
+            receiver.close();
+            writer.close();
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error serializing the sequence", ex);
+        }
+        catch ( IOException ex ) {
+            throw new ToolsException("Error writing the serialized sequence", ex);
         }
     }
 
-    private void setOutputKey(Properties props, String name, QName value)
+    /**
+     * Serialize the sequence compressed, in one pass.
+     *
+     * The output of the serializer is compressed as it is produced, and
+     * written to {@code out}, which is left open.
+     *
+     * @see Compression
+     */
+    public void serialize(OutputStream out, SerialParameters params, Compression compression)
             throws ToolsException
     {
-        if ( value != null ) {
-            if ( value.getNamespaceURI() != null && ! value.getNamespaceURI().equals("") ) {
-                throw new ToolsException(
-                        "A QName with a non-null namespace not supported as a serialization param: {"
-                                + value.getNamespaceURI() + "}" + value.getLocalPart());
+        OutputStream compressed;
+        try {
+            compressed = compression.open(out);
+        }
+        catch ( IOException ex ) {
+            throw new ToolsException("Error compressing the serialized sequence", ex);
+        }
+        boolean done = false;
+        try {
+            serialize(compressed, params);
+            compressed.close();
+            done = true;
+        }
+        catch ( IOException ex ) {
+            throw new ToolsException("Error compressing the serialized sequence", ex);
+        }
+        finally {
+            if ( ! done ) {
+                // do not write the trailer after a truncated output
+                Compression.abort(compressed);
             }
-            props.setProperty(name, value.getLocalPart());
         }
     }
 
-    private void setOutputKey(Properties props, String name, Iterable<QName> value)
+    /**
+     * Serialize the sequence to a channel, like a {@code FileChannel} or a {@code SocketChannel}.
+     *
+     * The output goes through pooled direct buffers, written with gather
+     * writes when the channel supports them.  The channel must be in blocking
+     * mode, and is left open.  For a {@code FileChannel}, the output is
+     * written at its current position.
+     */
+    public void serialize(WritableByteChannel channel, SerialParameters params)
             throws ToolsException
     {
-        if ( value != null ) {
-            StringBuilder buf = new StringBuilder();
-            for ( QName qname : value ) {
-                if ( qname.getNamespaceURI() != null && ! qname.getNamespaceURI().equals("") ) {
-                    throw new ToolsException(
-                            "A QName with a non-null namespace not supported as a serialization param: {"
-                                    + qname.getNamespaceURI() + "}" + qname.getLocalPart());
-                }
-                buf.append(qname.getLocalPart());
-                buf.append(" ");
+        ChannelOutputStream out = new ChannelOutputStream(channel);
+        boolean done = false;
+        try {
+            serialize(out, params);
+            out.close();
+            done = true;
+        }
+        catch ( IOException ex ) {
+            throw new ToolsException("Error writing the serialized sequence to the channel", ex);
+        }
+        finally {
+            if ( ! done ) {
+                // do not write the partial output buffered so far
+                out.abort();
             }
-            props.setProperty(name, buf.toString());
+        }
+    }
+
+    /**
+     * Publish the serialization of the sequence, throttled by the subscriber demand.
+     *
+     * The serialization runs on {@code executor} when subscribed to, and
+     * can be subscribed to only once.
+     *
+     * @see SerialPublisher
+     */
+    public SerialPublisher publisher(SerialParameters params, Executor executor)
+    {
+        return new SerialPublisher(this, params, executor);
+    }
+
+    /**
+     * Serialize the sequence by chunks of items, serialized in parallel on {@code executor}.
+     *
+     * Each chunk of {@code chunk_size} items is serialized in its own buffer,
+     * and the buffers are written to {@code out} in order.  This is only
+     * meant for sequences of independent items, like one record element per
+     * item, where it produces the same result as {@link #serialize(OutputStream, SerialParameters)},
+     * except maybe for the indentation whitespace between chunks.  Any
+     * executor can be used, including a {@code ForkJoinPool}.
+     */
+    public void serialize(OutputStream out, SerialParameters params, ExecutorService executor, int chunk_size)
+            throws ToolsException
+    {
+        SerialProfile profile = SerialProfile.compile(params);
+        Configuration config = myCtxt.getConfiguration();
+        if ( myIt == null ) {
+            return;
+        }
+        try {
+            new ParallelSerializer(config, profile, executor, chunk_size).serialize(serializable(), out);
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error serializing the sequence", ex);
+        }
+        catch ( IOException ex ) {
+            throw new ToolsException("Error writing the serialized sequence", ex);
         }
     }
 
     private final SequenceIterator myIt;
+    /** Whether {@link #myIt} has been advanced (by {@link #next()} or a serialization). */
+    private boolean myConsumed = false;
     private final XPathContext myCtxt;
+    /** Only in memoizing mode, null otherwise. */
+    private final MemoSequence myMemo;
+    /** Only for grounded sequences, null otherwise. */
+    private final SpillBuffer mySpill;
 }
 
 
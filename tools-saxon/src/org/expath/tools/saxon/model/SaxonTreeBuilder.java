@@ -9,20 +9,41 @@
 
 package org.expath.tools.saxon.model;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Map;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.stream.StreamResult;
+import net.sf.saxon.Configuration;
 import net.sf.saxon.event.Builder;
+import net.sf.saxon.event.NamespaceReducer;
+import net.sf.saxon.event.Receiver;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.om.*;
+import net.sf.saxon.serialize.CharacterMapIndex;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.BuiltInAtomicType;
 import net.sf.saxon.type.Untyped;
 import org.expath.tools.ToolsException;
 import org.expath.tools.model.TreeBuilder;
+import org.expath.tools.saxon.serial.SerialProfile;
+import org.expath.tools.serial.SerialParameters;
 import org.expath.tools.saxon.misc.VoidLocation;
 
 
 /**
  * Implementation of {@link TreeBuilder} for Saxon.
  *
+ * The Saxon builders and the node names are reused between the tree
+ * builders of the same controller (see {@link TreeBuilderPool}), so building
+ * many small trees allocates little more than the trees themselves.
+ *
+ * In push mode, the events are sent to a Saxon {@link Receiver} instead (a
+ * serializer, or any receiver in the same configuration), and no tree is
+ * built at all.  The receiver is opened by the constructor, and closed by
+ * {@link #finish()}.  This is useful for big results, serialized right away.
+ *
  * @author Florent Georges
  */
 public class SaxonTreeBuilder
@@ -31,34 +52,143 @@ public class SaxonTreeBuilder
     public SaxonTreeBuilder(XPathContext ctxt, String prefix, String ns)
             throws ToolsException
     {
-        myBuilder = ctxt.getController().makeBuilder();
-        myBuilder.open();
+        this(ctxt, prefix, ns, (Receiver) null, (Writer) null);
+    }
+
+    /**
+     * Push mode, sending the events to {@code receiver}.
+     *
+     * The namespace declarations for the element names are added.
+     */
+    public SaxonTreeBuilder(XPathContext ctxt, String prefix, String ns, Receiver receiver)
+            throws ToolsException
+    {
+        this(ctxt, prefix, ns, new NamespaceReducer(receiver), null);
+    }
+
+    /**
+     * Push mode, serializing the events to {@code out}.
+     *
+     * {@code out} is flushed, but not closed, by {@link #finish()}.
+     */
+    public SaxonTreeBuilder(XPathContext ctxt, String prefix, String ns, OutputStream out, SerialParameters params)
+            throws ToolsException
+    {
+        this(ctxt, prefix, ns, out, SerialProfile.compile(params));
+    }
+
+    /**
+     * Push mode, serializing the events to {@code out}, with parameters already compiled.
+     */
+    public SaxonTreeBuilder(XPathContext ctxt, String prefix, String ns, OutputStream out, SerialProfile profile)
+            throws ToolsException
+    {
+        this(ctxt, prefix, ns, profile, out, encoder(out, profile));
+    }
+
+    private SaxonTreeBuilder(XPathContext ctxt, String prefix, String ns, SerialProfile profile, OutputStream out,
+                             Writer writer)
+            throws ToolsException
+    {
+        this(ctxt, prefix, ns, serializer(ctxt.getConfiguration(), profile, out, writer), writer);
+    }
+
+    private SaxonTreeBuilder(XPathContext ctxt, String prefix, String ns, Receiver receiver, Writer writer)
+            throws ToolsException
+    {
+        myPool = TreeBuilderPool.forController(ctxt.getController());
+        myBuilder = receiver == null ? myPool.acquire() : null;
+        myReceiver = receiver == null ? myBuilder : receiver;
+        myWriter = writer;
+        try {
+            myReceiver.open();
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error opening the Saxon receiver", ex);
+        }
         myNs = ns;
         myPrefix = prefix;
+        myNames = myPool.elementNames(prefix, ns);
+    }
+
+    /**
+     * The encoding writer for the serializer, or null to write to {@code out} directly.
+     */
+    private static Writer encoder(OutputStream out, SerialProfile profile)
+    {
+        return EncodingWriter.forEncoding(out, profile.getOutputProperties().getProperty(OutputKeys.ENCODING));
+    }
+
+    /**
+     * The serializer, writing to {@code writer} if not null, or else to {@code out}.
+     */
+    private static Receiver serializer(Configuration config, SerialProfile profile, OutputStream out, Writer writer)
+            throws ToolsException
+    {
+        StreamResult result = writer == null ? new StreamResult(out) : new StreamResult(writer);
+        CharacterMapIndex maps = profile.getCharacterMaps();
+        try {
+            return config.getSerializerFactory().getReceiver(
+                    result, SaxonSequence.makePipeline(config, maps), profile.getOutputProperties(), maps);
+        }
+        catch ( XPathException ex ) {
+            throw new ToolsException("Error creating the Saxon serializer", ex);
+        }
     }
 
     /**
      * Provide the result in Saxon's object tools.
+     *
+     * This completes the tree, and gives the Saxon builder back to the pool.
+     * Not available in push mode.
      */
     public NodeInfo getCurrentRoot()
             throws ToolsException
     {
+        if ( myBuilder == null ) {
+            throw new ToolsException("No tree is built in push mode");
+        }
+        finish();
+        return myRoot;
+    }
+
+    /**
+     * Complete the tree, or close the receiver in push mode.
+     *
+     * Can be called several times.
+     */
+    public void finish()
+            throws ToolsException
+    {
+        if ( myFinished ) {
+            return;
+        }
+        myFinished = true;
         try {
-            myBuilder.close();
+            myReceiver.close();
+            if ( myWriter != null ) {
+                myWriter.close();
+            }
         }
         catch ( XPathException ex ) {
             throw new ToolsException("Error closing the Saxon tree builder", ex);
         }
-        return myBuilder.getCurrentRoot();
+        catch ( IOException ex ) {
+            throw new ToolsException("Error writing the serialized tree", ex);
+        }
+        if ( myBuilder != null ) {
+            myRoot = myBuilder.getCurrentRoot();
+            myPool.release(myBuilder);
+        }
     }
 
     @Override
     public void startElem(String localname)
             throws ToolsException
     {
-        NodeName name = new FingerprintedQName(myPrefix, myNs, localname);
+        NodeName name = myPool.elementName(myNames, myPrefix, myNs, localname);
         try {
-            myBuilder.startElement(name, Untyped.getInstance(), VoidLocation.instance(), 0);
+            myReceiver.startElement(name, Untyped.getInstance(), VoidLocation.instance(), 0);
         }
         catch ( XPathException ex ) {
             throw new ToolsException("Error starting element on the Saxon tree builder", ex);
@@ -70,9 +200,9 @@ public class SaxonTreeBuilder
             throws ToolsException
     {
         if ( value != null ) {
-            NodeName name = new NoNamespaceName(localname);
+            NodeName name = myPool.attributeName(localname);
             try {
-                myBuilder.attribute(name, BuiltInAtomicType.UNTYPED_ATOMIC, value, VoidLocation.instance(), 0);
+                myReceiver.attribute(name, BuiltInAtomicType.UNTYPED_ATOMIC, value, VoidLocation.instance(), 0);
             }
             catch ( XPathException ex ) {
                 throw new ToolsException("Error creating attribute on the Saxon tree builder", ex);
@@ -85,7 +215,7 @@ public class SaxonTreeBuilder
             throws ToolsException
     {
         try {
-            myBuilder.startContent();
+            myReceiver.startContent();
         }
         catch ( XPathException ex ) {
             throw new ToolsException("Error starting content on the Saxon tree builder", ex);
@@ -97,14 +227,25 @@ public class SaxonTreeBuilder
             throws ToolsException
     {
         try {
-            myBuilder.endElement();
+            myReceiver.endElement();
         }
         catch ( XPathException ex ) {
             throw new ToolsException("Error ending element on the Saxon tree builder", ex);
         }
     }
 
+    private final TreeBuilderPool myPool;
+    /** The builder, or null in push mode. */
     private final Builder myBuilder;
+    /** Where to send the events, the builder if not in push mode. */
+    private final Receiver myReceiver;
+    /** The encoding writer to flush when finished, if any. */
+    private final Writer myWriter;
+    /** The element names in {@link #myNs} with {@link #myPrefix}, by local name. */
+    private final Map<String, NodeName> myNames;
+    /** The result, once the tree is complete. */
+    private NodeInfo myRoot;
+    private boolean myFinished = false;
     /** The namespace used for the elements. */
     private final String myNs;
     /** The prefix used for the elements. */
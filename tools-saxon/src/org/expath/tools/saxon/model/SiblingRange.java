@@ -0,0 +1,247 @@
+/****************************************************************************/
+/*  File:       SiblingRange.java                                           */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.tree.iter.AxisIterator;
+import org.expath.tools.ToolsException;
+import org.expath.tools.model.Element;
+
+/**
+ * A range of sibling nodes, which can be split to be processed in parallel.
+ *
+ * The nodes are collected once, when the range is created.  Then splitting a
+ * range does not touch the tree anymore, it only divides the positions, so
+ * each part can be handed to a different thread (e.g. through an
+ * {@code ExecutorService}).  Each part creates its own objects, so parts do
+ * not share any state.
+ *
+ * @param <T> The type of the objects the nodes are presented as.
+ *
+ * @author Florent Georges
+ */
+public abstract class SiblingRange<T>
+        implements Iterable<T>
+{
+    protected abstract T make(NodeInfo node);
+
+    protected abstract SiblingRange<T> range(int from, int to);
+
+    static SiblingRange<Element> elements(AxisIterator it, XPathContext ctxt)
+    {
+        NodeInfo[] nodes = collect(it);
+        return new ElementRange(nodes, 0, nodes.length, ctxt);
+    }
+
+    static SiblingRange<Item> items(AxisIterator it)
+    {
+        NodeInfo[] nodes = collect(it);
+        return new ItemRange(nodes, 0, nodes.length);
+    }
+
+    protected SiblingRange(NodeInfo[] nodes, int from, int to)
+    {
+        myNodes = nodes;
+        myFrom = from;
+        myTo = to;
+    }
+
+    /**
+     * The number of nodes in this range.
+     */
+    public int size()
+    {
+        return myTo - myFrom;
+    }
+
+    /**
+     * Return the position-th object in this range, 0-based.
+     */
+    public T get(int pos)
+    {
+        if ( pos < 0 || pos >= size() ) {
+            throw new IndexOutOfBoundsException("Position " + pos + " not in range of size " + size());
+        }
+        return make(myNodes[myFrom + pos]);
+    }
+
+    /**
+     * Split off the first half of this range, and keep the second half.
+     *
+     * @return The first half, or null if this range is too small to be split.
+     */
+    public SiblingRange<T> trySplit()
+    {
+        if ( size() < 2 ) {
+            return null;
+        }
+        int mid = myFrom + size() / 2;
+        SiblingRange<T> prefix = range(myFrom, mid);
+        myFrom = mid;
+        return prefix;
+    }
+
+    /**
+     * Split this range into at most {@code parts} ranges of (almost) the same size.
+     *
+     * This range is not modified.  No empty range is returned, so there can
+     * be less than {@code parts} ranges.
+     */
+    public List<SiblingRange<T>> split(int parts)
+    {
+        if ( parts < 1 ) {
+            throw new IllegalArgumentException("The number of parts must be positive: " + parts);
+        }
+        int size = size();
+        int count = Math.min(parts, size);
+        List<SiblingRange<T>> result = new ArrayList<SiblingRange<T>>(count);
+        int from = myFrom;
+        for ( int i = 0; i < count; ++i ) {
+            // spread the remainder on the first ranges
+            int len = size / count + (i < size % count ? 1 : 0);
+            result.add(range(from, from + len));
+            from += len;
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<T> iterator()
+    {
+        return new RangeIterator(myFrom, myTo);
+    }
+
+    private static NodeInfo[] collect(AxisIterator it)
+    {
+        List<NodeInfo> nodes = new ArrayList<NodeInfo>();
+        NodeInfo node;
+        while ( (node = it.next()) != null ) {
+            nodes.add(node);
+        }
+        return nodes.toArray(new NodeInfo[nodes.size()]);
+    }
+
+    private final NodeInfo[] myNodes;
+    private int myFrom;
+    private final int myTo;
+
+    private class RangeIterator
+            implements Iterator<T>
+    {
+        public RangeIterator(int from, int to)
+        {
+            myPos = from;
+            myEnd = to;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return myPos < myEnd;
+        }
+
+        @Override
+        public T next()
+        {
+            if ( myPos >= myEnd ) {
+                throw new NoSuchElementException("No more node in the range");
+            }
+            return make(myNodes[myPos++]);
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove() is not supported");
+        }
+
+        private int myPos;
+        private final int myEnd;
+    }
+
+    private static class ElementRange
+            extends SiblingRange<Element>
+    {
+        public ElementRange(NodeInfo[] nodes, int from, int to, XPathContext ctxt)
+        {
+            super(nodes, from, to);
+            myCtxt = ctxt;
+        }
+
+        @Override
+        protected Element make(NodeInfo node)
+        {
+            try {
+                return new SaxonElement(node, myCtxt);
+            }
+            catch ( ToolsException ex ) {
+                // we know by construction this is not possible to arrive here
+                // (the range contains only element nodes)
+                throw new RuntimeException("[cannot happen] error building the saxon element", ex);
+            }
+        }
+
+        @Override
+        protected SiblingRange<Element> range(int from, int to)
+        {
+            return new ElementRange(super.myNodes, from, to, myCtxt);
+        }
+
+        private final XPathContext myCtxt;
+    }
+
+    private static class ItemRange
+            extends SiblingRange<Item>
+    {
+        public ItemRange(NodeInfo[] nodes, int from, int to)
+        {
+            super(nodes, from, to);
+        }
+
+        @Override
+        protected Item make(NodeInfo node)
+        {
+            return node;
+        }
+
+        @Override
+        protected SiblingRange<Item> range(int from, int to)
+        {
+            return new ItemRange(super.myNodes, from, to);
+        }
+    }
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
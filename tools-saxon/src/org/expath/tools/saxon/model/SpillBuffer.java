@@ -0,0 +1,637 @@
+/****************************************************************************/
+/*  File:       SpillBuffer.java                                            */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.Builder;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.expr.LastPositionFinder;
+import net.sf.saxon.expr.parser.Location;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.FingerprintedQName;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NamespaceBinding;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.NodeName;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.om.TreeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.tiny.TinyBuilder;
+import net.sf.saxon.tree.tiny.TinyTree;
+import net.sf.saxon.tree.util.NamespaceIterator;
+import net.sf.saxon.tree.util.Orphan;
+import net.sf.saxon.type.AtomicType;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.BuiltInType;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.type.Untyped;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.NotationValue;
+import net.sf.saxon.value.QNameValue;
+import net.sf.saxon.value.QualifiedNameValue;
+import net.sf.saxon.value.StringValue;
+import org.expath.tools.saxon.misc.VoidLocation;
+
+/**
+ * A grounded sequence keeping its first items in memory, and the rest on disk.
+ *
+ * Items are kept in memory as long as their estimated size stays below the
+ * limit.  A node kept in memory keeps its whole tree alive, so the size of
+ * the whole tree is counted, once for all its nodes in the sequence.  The
+ * following ones are written to a temporary file, in a compact
+ * binary format: atomic values as their type and lexical value, element and
+ * document nodes as the events of their subtree (so any document content can
+ * be spilled, not only well-formed XML documents), other nodes as their kind,
+ * name and string value.  The file is read back lazily, each time the
+ * sequence is iterated over, and the trees are rebuilt each time.
+ *
+ * Nodes read back from the file are copies: node identity is not preserved
+ * (not even between two iterations), nor their ancestors (an element comes
+ * back as the root of its own tree) and their type annotations.  Function
+ * items cannot be spilled.
+ *
+ * @author Florent Georges
+ */
+final class SpillBuffer
+{
+    /**
+     * Evaluate {@code it} entirely, spilling to disk beyond {@code limit} bytes.
+     *
+     * @param limit The maximum size, in bytes, of the items kept in memory.
+     */
+    public static SpillBuffer ground(SequenceIterator it, Configuration config, long limit)
+            throws XPathException, IOException
+    {
+        SpillBuffer buffer = new SpillBuffer(config);
+        boolean done = false;
+        try {
+            long size = 0;
+            Map<TreeInfo, Boolean> trees = new IdentityHashMap<TreeInfo, Boolean>();
+            Item item;
+            while ( (item = it.next()) != null ) {
+                if ( buffer.myOut == null ) {
+                    size += estimate(item, trees);
+                    if ( size <= limit ) {
+                        buffer.myItems.add(item);
+                        continue;
+                    }
+                    buffer.open();
+                }
+                buffer.write(item);
+            }
+            buffer.close();
+            done = true;
+        }
+        finally {
+            if ( ! done ) {
+                buffer.abort();
+            }
+        }
+        return buffer;
+    }
+
+    private SpillBuffer(Configuration config)
+    {
+        myConfig = config;
+        myItems = new ArrayList<Item>();
+    }
+
+    /**
+     * A new iterator over the whole sequence, reading the spilled items lazily.
+     */
+    public SequenceIterator iterate()
+    {
+        return new Replay();
+    }
+
+    public int getLength()
+    {
+        return myItems.size() + mySpilled;
+    }
+
+    /**
+     * The number of items spilled to disk.
+     */
+    public int getSpilled()
+    {
+        return mySpilled;
+    }
+
+    /**
+     * Delete the temporary file, if any.  The spilled items cannot be read anymore.
+     *
+     * This is the only way the file is deleted, it is not even deleted when the JVM exits.
+     */
+    public synchronized void release()
+    {
+        if ( myFile != null ) {
+            myFile.delete();
+            myFile = null;
+        }
+    }
+
+    /**
+     * A rough estimate of the heap used by an item, in bytes.
+     *
+     * @param trees The trees already counted, for the nodes.
+     */
+    private static long estimate(Item item, Map<TreeInfo, Boolean> trees)
+    {
+        if ( item instanceof StringValue ) {
+            return ITEM_OVERHEAD + 2L * ((StringValue) item).getStringValueCS().length();
+        }
+        else if ( item instanceof NodeInfo ) {
+            TreeInfo tree = ((NodeInfo) item).getTreeInfo();
+            if ( trees.put(tree, Boolean.TRUE) != null ) {
+                // the tree is already counted
+                return ITEM_OVERHEAD;
+            }
+            return ITEM_OVERHEAD + estimate(tree);
+        }
+        else {
+            return ITEM_OVERHEAD;
+        }
+    }
+
+    /**
+     * A rough estimate of the heap used by a whole tree, in bytes.
+     *
+     * A tiny tree gives its node and character counts directly, other trees
+     * are walked through, without copying their string value.
+     */
+    private static long estimate(TreeInfo tree)
+    {
+        if ( tree instanceof TinyTree ) {
+            TinyTree tiny = (TinyTree) tree;
+            CharSequence comments = tiny.getCommentBuffer();
+            return TINY_NODE_OVERHEAD * tiny.getNumberOfNodes()
+                    + NODE_OVERHEAD * tiny.getNumberOfAttributes()
+                    + ITEM_OVERHEAD * tiny.getNumberOfNamespaces()
+                    + 2L * tiny.getCharacterBuffer().length()
+                    + (comments == null ? 0 : 2L * comments.length());
+        }
+        long size = 0;
+        AxisIterator nodes = tree.getRootNode().iterateAxis(AxisInfo.DESCENDANT_OR_SELF);
+        NodeInfo node;
+        while ( (node = nodes.next()) != null ) {
+            size += NODE_OVERHEAD;
+            int kind = node.getNodeKind();
+            if ( kind == Type.ELEMENT ) {
+                AxisIterator attrs = node.iterateAxis(AxisInfo.ATTRIBUTE);
+                NodeInfo attr;
+                while ( (attr = attrs.next()) != null ) {
+                    size += NODE_OVERHEAD + 2L * attr.getStringValueCS().length();
+                }
+            }
+            else if ( kind != Type.DOCUMENT ) {
+                size += 2L * node.getStringValueCS().length();
+            }
+        }
+        return size;
+    }
+
+    private void open()
+            throws IOException
+    {
+        // no deleteOnExit(), its list would grow for each sequence until the JVM exits
+        myFile = File.createTempFile("expath-sequence-", ".spill");
+        myOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile), BUFFER_SIZE));
+    }
+
+    private void close()
+            throws IOException
+    {
+        if ( myOut != null ) {
+            myOut.close();
+            myOut = null;
+        }
+    }
+
+    private void abort()
+    {
+        try {
+            close();
+        }
+        catch ( IOException ex ) {
+            // the file is deleted anyway
+        }
+        release();
+    }
+
+    private void write(Item item)
+            throws XPathException, IOException
+    {
+        if ( item instanceof QualifiedNameValue ) {
+            QualifiedNameValue value = (QualifiedNameValue) item;
+            myOut.writeByte(item instanceof NotationValue ? TAG_NOTATION : TAG_QNAME);
+            myOut.writeInt(typeFingerprint(value));
+            writeString(value.getPrefix());
+            writeString(value.getNamespaceURI());
+            writeString(value.getLocalName());
+        }
+        else if ( item instanceof AtomicValue ) {
+            myOut.writeByte(TAG_ATOMIC);
+            myOut.writeInt(typeFingerprint((AtomicValue) item));
+            writeString(item.getStringValue());
+        }
+        else if ( item instanceof NodeInfo ) {
+            NodeInfo node = (NodeInfo) item;
+            int kind = node.getNodeKind();
+            if ( kind == Type.DOCUMENT || kind == Type.ELEMENT ) {
+                myOut.writeByte(kind == Type.DOCUMENT ? TAG_DOCUMENT : TAG_ELEMENT);
+                writeString(node.getBaseURI());
+                if ( kind == Type.DOCUMENT ) {
+                    writeChildren(node);
+                }
+                else {
+                    writeElement(node, true);
+                }
+                myOut.writeByte(EV_END);
+            }
+            else {
+                myOut.writeByte(TAG_NODE);
+                myOut.writeByte(kind);
+                writeString(node.getPrefix());
+                writeString(node.getURI());
+                writeString(node.getLocalPart());
+                writeString(node.getStringValue());
+            }
+        }
+        else {
+            throw new XPathException("Cannot spill a function item to disk: " + item);
+        }
+        ++mySpilled;
+    }
+
+    /**
+     * Write an element as events: its name, namespaces, attributes and children, then the end.
+     *
+     * @param top Whether to write all the in-scope namespaces, or only the declared ones.
+     */
+    private void writeElement(NodeInfo elem, boolean top)
+            throws IOException
+    {
+        myOut.writeByte(EV_ELEMENT);
+        writeName(elem);
+        if ( top ) {
+            Iterator<NamespaceBinding> namespaces = NamespaceIterator.iterateNamespaces(elem);
+            while ( namespaces.hasNext() ) {
+                writeNamespace(namespaces.next());
+            }
+        }
+        else {
+            for ( NamespaceBinding ns : elem.getDeclaredNamespaces(null) ) {
+                if ( ns == null ) {
+                    break;
+                }
+                writeNamespace(ns);
+            }
+        }
+        AxisIterator attrs = elem.iterateAxis(AxisInfo.ATTRIBUTE);
+        NodeInfo attr;
+        while ( (attr = attrs.next()) != null ) {
+            myOut.writeByte(EV_ATTRIBUTE);
+            writeName(attr);
+            writeString(attr.getStringValue());
+        }
+        writeChildren(elem);
+        myOut.writeByte(EV_END);
+    }
+
+    private void writeChildren(NodeInfo parent)
+            throws IOException
+    {
+        AxisIterator children = parent.iterateAxis(AxisInfo.CHILD);
+        NodeInfo child;
+        while ( (child = children.next()) != null ) {
+            switch ( child.getNodeKind() ) {
+                case Type.ELEMENT:
+                    writeElement(child, false);
+                    break;
+                case Type.TEXT:
+                    myOut.writeByte(EV_TEXT);
+                    writeString(child.getStringValue());
+                    break;
+                case Type.COMMENT:
+                    myOut.writeByte(EV_COMMENT);
+                    writeString(child.getStringValue());
+                    break;
+                case Type.PROCESSING_INSTRUCTION:
+                    myOut.writeByte(EV_PI);
+                    writeString(child.getLocalPart());
+                    writeString(child.getStringValue());
+                    break;
+                default:
+                    throw new IOException("Unexpected child node kind: " + child.getNodeKind());
+            }
+        }
+    }
+
+    private void writeName(NodeInfo node)
+            throws IOException
+    {
+        writeString(node.getPrefix());
+        writeString(node.getURI());
+        writeString(node.getLocalPart());
+    }
+
+    private void writeNamespace(NamespaceBinding ns)
+            throws IOException
+    {
+        if ( ! ns.isXmlNamespace() ) {
+            myOut.writeByte(EV_NAMESPACE);
+            writeString(ns.getPrefix());
+            writeString(ns.getURI());
+        }
+    }
+
+    /**
+     * The fingerprint of the built-in type of a value (its primitive type if user-defined).
+     */
+    private static int typeFingerprint(AtomicValue value)
+    {
+        AtomicType type = value.getItemType();
+        if ( ! type.isBuiltInType() ) {
+            type = value.getPrimitiveType();
+        }
+        return type.getFingerprint();
+    }
+
+    private void writeString(String value)
+            throws IOException
+    {
+        if ( value == null ) {
+            myOut.writeInt(-1);
+        }
+        else {
+            byte[] bytes = value.getBytes(UTF_8);
+            myOut.writeInt(bytes.length);
+            myOut.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in)
+            throws IOException
+    {
+        int length = in.readInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private Item read(DataInputStream in)
+            throws XPathException, IOException
+    {
+        byte tag;
+        try {
+            tag = in.readByte();
+        }
+        catch ( EOFException ex ) {
+            return null;
+        }
+        switch ( tag ) {
+            case TAG_ATOMIC: {
+                AtomicType type = (AtomicType) BuiltInType.getSchemaType(in.readInt());
+                String value = readString(in);
+                return type.getStringConverter(myConfig.getConversionRules()).convertString(value).asAtomic();
+            }
+            case TAG_QNAME:
+            case TAG_NOTATION: {
+                AtomicType type = (AtomicType) BuiltInType.getSchemaType(in.readInt());
+                StructuredQName name = new StructuredQName(readString(in), readString(in), readString(in));
+                return tag == TAG_QNAME ? new QNameValue(name, type) : new NotationValue(name, type);
+            }
+            case TAG_DOCUMENT:
+            case TAG_ELEMENT: {
+                String base = readString(in);
+                Builder builder = new TinyBuilder(myConfig.makePipelineConfiguration());
+                builder.setSystemId(base);
+                builder.setBaseURI(base);
+                builder.open();
+                if ( tag == TAG_DOCUMENT ) {
+                    builder.startDocument(0);
+                    readContent(in, builder, in.readByte());
+                    builder.endDocument();
+                }
+                else {
+                    readContent(in, builder, in.readByte());
+                }
+                builder.close();
+                return builder.getCurrentRoot();
+            }
+            case TAG_NODE: {
+                Orphan node = new Orphan(myConfig);
+                node.setNodeKind(in.readByte());
+                String prefix = readString(in);
+                String uri = readString(in);
+                String local = readString(in);
+                if ( local != null && local.length() > 0 ) {
+                    node.setNodeName(new FingerprintedQName(prefix, uri, local));
+                }
+                node.setStringValue(readString(in));
+                return node;
+            }
+            default:
+                throw new IOException("Corrupted spill file, unknown item tag: " + tag);
+        }
+    }
+
+    /**
+     * Send the events to {@code out}, starting with {@code tag}, up to the end of the current content.
+     */
+    private void readContent(DataInputStream in, Receiver out, byte tag)
+            throws XPathException, IOException
+    {
+        Location loc = VoidLocation.instance();
+        for ( ; tag != EV_END; tag = in.readByte() ) {
+            switch ( tag ) {
+                case EV_ELEMENT: {
+                    out.startElement(readName(in), Untyped.getInstance(), loc, 0);
+                    byte next = in.readByte();
+                    for ( ; next == EV_NAMESPACE || next == EV_ATTRIBUTE; next = in.readByte() ) {
+                        if ( next == EV_NAMESPACE ) {
+                            out.namespace(new NamespaceBinding(readString(in), readString(in)), 0);
+                        }
+                        else {
+                            out.attribute(readName(in), BuiltInAtomicType.UNTYPED_ATOMIC, readString(in), loc, 0);
+                        }
+                    }
+                    out.startContent();
+                    readContent(in, out, next);
+                    out.endElement();
+                    break;
+                }
+                case EV_TEXT:
+                    out.characters(readString(in), loc, 0);
+                    break;
+                case EV_COMMENT:
+                    out.comment(readString(in), loc, 0);
+                    break;
+                case EV_PI:
+                    out.processingInstruction(readString(in), readString(in), loc, 0);
+                    break;
+                default:
+                    throw new IOException("Corrupted spill file, unknown node event: " + tag);
+            }
+        }
+    }
+
+    private static NodeName readName(DataInputStream in)
+            throws IOException
+    {
+        String prefix = readString(in);
+        String uri = readString(in);
+        String local = readString(in);
+        return new FingerprintedQName(prefix, uri, local);
+    }
+
+    /**
+     * Iterates over the in-memory items, then over the file.
+     */
+    private class Replay
+            implements SequenceIterator, LastPositionFinder<Item>
+    {
+        @Override
+        public Item next()
+                throws XPathException
+        {
+            if ( myPos < myItems.size() ) {
+                return myItems.get(myPos++);
+            }
+            if ( myPos == getLength() ) {
+                close();
+                return null;
+            }
+            try {
+                if ( myIn == null ) {
+                    File file;
+                    synchronized ( SpillBuffer.this ) {
+                        file = myFile;
+                    }
+                    if ( file == null ) {
+                        throw new XPathException("The spilled sequence has been released");
+                    }
+                    myIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+                }
+                Item item = read(myIn);
+                ++myPos;
+                return item;
+            }
+            catch ( IOException ex ) {
+                close();
+                throw new XPathException("Error reading the spilled sequence", ex);
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            if ( myIn != null ) {
+                try {
+                    myIn.close();
+                }
+                catch ( IOException ex ) {
+                    // nothing we can do, the stream was read-only anyway
+                }
+                myIn = null;
+            }
+        }
+
+        @Override
+        public SequenceIterator getAnother()
+        {
+            return new Replay();
+        }
+
+        @Override
+        public int getProperties()
+        {
+            return LAST_POSITION_FINDER;
+        }
+
+        @Override
+        public int getLength()
+        {
+            return SpillBuffer.this.getLength();
+        }
+
+        private int myPos = 0;
+        private DataInputStream myIn;
+    }
+
+    private static final byte TAG_ATOMIC   = 1;
+    private static final byte TAG_QNAME    = 2;
+    private static final byte TAG_NOTATION = 3;
+    private static final byte TAG_DOCUMENT = 4;
+    private static final byte TAG_ELEMENT  = 5;
+    private static final byte TAG_NODE     = 6;
+
+    /** The events of the subtree of an element or document, after their tag. */
+    private static final byte EV_END       = 0;
+    private static final byte EV_ELEMENT   = 1;
+    private static final byte EV_NAMESPACE = 2;
+    private static final byte EV_ATTRIBUTE = 3;
+    private static final byte EV_TEXT      = 4;
+    private static final byte EV_COMMENT   = 5;
+    private static final byte EV_PI        = 6;
+
+    private static final String UTF_8 = "UTF-8";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long ITEM_OVERHEAD = 32;
+    private static final long NODE_OVERHEAD = 64;
+    /** The size of a node in the arrays of a tiny tree. */
+    private static final long TINY_NODE_OVERHEAD = 24;
+
+    private final Configuration myConfig;
+    private final List<Item> myItems;
+    private int mySpilled = 0;
+    private File myFile;
+    private DataOutputStream myOut;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
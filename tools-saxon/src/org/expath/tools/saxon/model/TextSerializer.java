@@ -0,0 +1,163 @@
+/****************************************************************************/
+/*  File:       TextSerializer.java                                         */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.io.CharConversionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Properties;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.stream.StreamResult;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.SequenceReceiver;
+import net.sf.saxon.expr.parser.ExplicitLocation;
+import net.sf.saxon.lib.SaxonOutputKeys;
+import net.sf.saxon.om.CopyOptions;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.AtomicValue;
+
+/**
+ * Serializes with the text method, without the Saxon serializer pipeline.
+ *
+ * The text method outputs the string value of each item, with a single space
+ * between adjacent atomic values.  This concatenates them directly into an
+ * {@link EncodingWriter}, so only for UTF-8, ISO-8859-1 and US-ASCII.  Other
+ * encodings, and parameters changing the output (like Unicode normalization
+ * or character maps), are left to Saxon.  So are items other than atomic
+ * values, and document, element and text nodes: when the sequence contains
+ * one, it and the rest of the sequence are passed to the Saxon serializer
+ * (still writing to the same encoding writer).
+ *
+ * @author Florent Georges
+ */
+final class TextSerializer
+{
+    /**
+     * Return a serializer for the output properties, or null if they are not supported.
+     */
+    public static TextSerializer forProperties(Properties props)
+    {
+        if ( ! "text".equals(props.getProperty(OutputKeys.METHOD)) ) {
+            return null;
+        }
+        if ( props.getProperty(SaxonOutputKeys.USE_CHARACTER_MAPS) != null ) {
+            return null;
+        }
+        String norm = props.getProperty(SaxonOutputKeys.NORMALIZATION_FORM);
+        if ( norm != null && ! "none".equals(norm) ) {
+            return null;
+        }
+        String encoding = props.getProperty(OutputKeys.ENCODING, "UTF-8");
+        if ( ! EncodingWriter.isSupported(encoding) ) {
+            return null;
+        }
+        boolean bom = "yes".equals(props.getProperty(SaxonOutputKeys.BYTE_ORDER_MARK));
+        return new TextSerializer(props, encoding, bom);
+    }
+
+    private TextSerializer(Properties props, String encoding, boolean bom)
+    {
+        myProps = props;
+        myEncoding = encoding;
+        myBom = bom;
+    }
+
+    public void serialize(SequenceIterator it, OutputStream out, Configuration config)
+            throws XPathException, IOException
+    {
+        EncodingWriter writer = EncodingWriter.forEncoding(out, myEncoding);
+        try {
+            if ( myBom ) {
+                writer.writeByteOrderMark();
+            }
+            boolean prev_atomic = false;
+            Item item;
+            while ( (item = it.next()) != null ) {
+                if ( item instanceof AtomicValue ) {
+                    if ( prev_atomic ) {
+                        writer.write(' ');
+                    }
+                    writer.append(item.getStringValueCS());
+                    prev_atomic = true;
+                }
+                else if ( isTextual(item) ) {
+                    writer.append(item.getStringValueCS());
+                    prev_atomic = false;
+                }
+                else {
+                    fallback(item, it, writer, config);
+                    break;
+                }
+            }
+            writer.close();
+        }
+        catch ( CharConversionException ex ) {
+            throw new XPathException(ex.getMessage(), "SERE0008");
+        }
+    }
+
+    private static boolean isTextual(Item item)
+    {
+        if ( ! (item instanceof NodeInfo) ) {
+            return false;
+        }
+        int kind = ((NodeInfo) item).getNodeKind();
+        return kind == Type.DOCUMENT || kind == Type.ELEMENT || kind == Type.TEXT;
+    }
+
+    /**
+     * Serialize {@code item} and the rest of {@code it} with the Saxon serializer.
+     */
+    private void fallback(Item item, SequenceIterator it, Writer out, Configuration config)
+            throws XPathException
+    {
+        Properties props = new Properties();
+        props.putAll(myProps);
+        props.setProperty(SaxonOutputKeys.BYTE_ORDER_MARK, "no");
+        SequenceReceiver receiver = config.getSerializerFactory().getReceiver(
+                new StreamResult(out), SaxonSequence.makePipeline(config, null), props);
+        receiver.open();
+        do {
+            receiver.append(item, ExplicitLocation.UNKNOWN_LOCATION, CopyOptions.ALL_NAMESPACES);
+        }
+        while ( (item = it.next()) != null );
+        receiver.close();
+    }
+
+    private final Properties myProps;
+    private final String myEncoding;
+    private final boolean myBom;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
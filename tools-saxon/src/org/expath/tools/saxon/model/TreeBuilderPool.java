@@ -0,0 +1,169 @@
+/****************************************************************************/
+/*  File:       TreeBuilderPool.java                                        */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.model;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.Builder;
+import net.sf.saxon.om.FingerprintedQName;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NoNamespaceName;
+import net.sf.saxon.om.NodeName;
+
+/**
+ * The tree builders and the node names reused by {@link SaxonTreeBuilder}, for a controller.
+ *
+ * A builder is given back to the pool once its tree is complete, and reset.
+ * The trees already built are not affected, as each tree has its own
+ * storage.  The element and attribute names are created with their name
+ * codes in the name pool of the controller, so the builders do not look
+ * them up again.  All methods are thread-safe.
+ *
+ * @author Florent Georges
+ */
+final class TreeBuilderPool
+{
+    /**
+     * Return the pool of {@code controller}, creating it if needed.
+     */
+    public static TreeBuilderPool forController(Controller controller)
+    {
+        synchronized ( controller ) {
+            TreeBuilderPool pool = (TreeBuilderPool) controller.getUserData(TreeBuilderPool.class, USER_DATA);
+            if ( pool == null ) {
+                pool = new TreeBuilderPool(controller);
+                controller.setUserData(TreeBuilderPool.class, USER_DATA, pool);
+            }
+            return pool;
+        }
+    }
+
+    private TreeBuilderPool(Controller controller)
+    {
+        myController = controller;
+        myNamePool = controller.getConfiguration().getNamePool();
+    }
+
+    /**
+     * A builder, from the pool if possible, not opened yet.
+     */
+    public Builder acquire()
+    {
+        Builder builder;
+        synchronized ( myBuilders ) {
+            builder = myBuilders.poll();
+        }
+        return builder == null ? myController.makeBuilder() : builder;
+    }
+
+    /**
+     * Give a builder back, after its tree is complete.
+     */
+    public void release(Builder builder)
+    {
+        builder.reset();
+        // restore what Controller.makeBuilder() sets, and reset() clears
+        Configuration config = myController.getConfiguration();
+        builder.setLineNumbering(config.isLineNumbering());
+        builder.setTiming(config.isTiming());
+        synchronized ( myBuilders ) {
+            if ( myBuilders.size() < MAX_BUILDERS ) {
+                myBuilders.addLast(builder);
+            }
+        }
+    }
+
+    /**
+     * The element names with {@code prefix} and {@code ns}, by local name.
+     */
+    public Map<String, NodeName> elementNames(String prefix, String ns)
+    {
+        String key = prefix + '{' + ns + '}';
+        Map<String, NodeName> names = myElementNames.get(key);
+        if ( names == null ) {
+            if ( myElementNames.size() >= MAX_NAMES ) {
+                myElementNames.clear();
+            }
+            names = new ConcurrentHashMap<String, NodeName>();
+            myElementNames.put(key, names);
+        }
+        return names;
+    }
+
+    /**
+     * The element name {prefix, ns, local}, from {@code names} if possible.
+     *
+     * @param names The map returned by {@link #elementNames(String, String)} for the same prefix and namespace.
+     */
+    public NodeName elementName(Map<String, NodeName> names, String prefix, String ns, String local)
+    {
+        NodeName name = names.get(local);
+        if ( name == null ) {
+            if ( names.size() >= MAX_NAMES ) {
+                // the names come from the data in some extensions, do not let them grow unbounded
+                names.clear();
+            }
+            name = new FingerprintedQName(prefix, ns, local, myNamePool);
+            names.put(local, name);
+        }
+        return name;
+    }
+
+    /**
+     * The no-namespace attribute name {@code local}.
+     */
+    public NodeName attributeName(String local)
+    {
+        NodeName name = myAttributeNames.get(local);
+        if ( name == null ) {
+            if ( myAttributeNames.size() >= MAX_NAMES ) {
+                myAttributeNames.clear();
+            }
+            name = new NoNamespaceName(local, myNamePool.allocate("", "", local));
+            myAttributeNames.put(local, name);
+        }
+        return name;
+    }
+
+    private static final String USER_DATA = "tree-builder-pool";
+    private static final int MAX_BUILDERS = 16;
+    private static final int MAX_NAMES = 1024;
+
+    private final Controller myController;
+    private final NamePool myNamePool;
+    private final LinkedList<Builder> myBuilders = new LinkedList<Builder>();
+    private final Map<String, Map<String, NodeName>> myElementNames
+            = new ConcurrentHashMap<String, Map<String, NodeName>>();
+    private final Map<String, NodeName> myAttributeNames = new ConcurrentHashMap<String, NodeName>();
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
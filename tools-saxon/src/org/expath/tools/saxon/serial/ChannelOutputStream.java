@@ -0,0 +1,230 @@
+/****************************************************************************/
+/*  File:       ChannelOutputStream.java                                    */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.serial;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An output stream writing to a channel, through pooled direct buffers.
+ *
+ * The bytes are copied once, into direct buffers taken from a pool shared
+ * by all instances.  When several buffers are full, they are written to the
+ * channel at once, with a gather write if the channel supports it (like
+ * {@code FileChannel} and {@code SocketChannel}).  The channel must be in
+ * blocking mode.
+ *
+ * Closing the stream flushes it and gives its buffers back to the pool, but
+ * does not close the channel.  After a failure, {@link #abort()} gives the
+ * buffers back without writing them.  Instances are not thread-safe.
+ *
+ * @author Florent Georges
+ */
+public class ChannelOutputStream
+        extends OutputStream
+{
+    public ChannelOutputStream(WritableByteChannel channel)
+    {
+        if ( channel instanceof SelectableChannel && ! ((SelectableChannel) channel).isBlocking() ) {
+            throw new IllegalArgumentException("The channel must be in blocking mode");
+        }
+        myChannel = channel;
+        myBuffers = new ByteBuffer[GATHER_SIZE];
+    }
+
+    @Override
+    public void write(int b)
+            throws IOException
+    {
+        current().put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+            throws IOException
+    {
+        while ( len > 0 ) {
+            ByteBuffer buf = current();
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush()
+            throws IOException
+    {
+        ensureOpen();
+        drain();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if ( myClosed ) {
+            return;
+        }
+        myClosed = true;
+        try {
+            drain();
+        }
+        finally {
+            discard();
+        }
+    }
+
+    /**
+     * Close the stream without writing the buffered bytes to the channel.
+     */
+    public void abort()
+    {
+        myClosed = true;
+        discard();
+    }
+
+    /**
+     * Give the buffers back to the pool, without writing them.
+     */
+    private void discard()
+    {
+        for ( int i = 0; i < myCount; ++i ) {
+            release(myBuffers[i]);
+            myBuffers[i] = null;
+        }
+        myCount = 0;
+    }
+
+    /**
+     * The buffer to write to, with some room left.
+     */
+    private ByteBuffer current()
+            throws IOException
+    {
+        ensureOpen();
+        if ( myCount > 0 ) {
+            ByteBuffer buf = myBuffers[myCount - 1];
+            if ( buf.hasRemaining() ) {
+                return buf;
+            }
+        }
+        if ( myCount == myBuffers.length ) {
+            drain();
+        }
+        ByteBuffer buf = acquire();
+        myBuffers[myCount++] = buf;
+        return buf;
+    }
+
+    /**
+     * Write all the buffers to the channel, and give them back to the pool.
+     */
+    private void drain()
+            throws IOException
+    {
+        if ( myCount == 0 ) {
+            return;
+        }
+        for ( int i = 0; i < myCount; ++i ) {
+            myBuffers[i].flip();
+        }
+        if ( myChannel instanceof GatheringByteChannel ) {
+            GatheringByteChannel gathering = (GatheringByteChannel) myChannel;
+            ByteBuffer last = myBuffers[myCount - 1];
+            while ( last.hasRemaining() ) {
+                gathering.write(myBuffers, 0, myCount);
+            }
+        }
+        else {
+            for ( int i = 0; i < myCount; ++i ) {
+                ByteBuffer buf = myBuffers[i];
+                while ( buf.hasRemaining() ) {
+                    myChannel.write(buf);
+                }
+            }
+        }
+        discard();
+    }
+
+    private void ensureOpen()
+            throws IOException
+    {
+        if ( myClosed ) {
+            throw new IOException("The stream is closed");
+        }
+    }
+
+    private static ByteBuffer acquire()
+    {
+        ByteBuffer buf = POOL.poll();
+        if ( buf == null ) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        POOLED.decrementAndGet();
+        return buf;
+    }
+
+    private static void release(ByteBuffer buf)
+    {
+        if ( POOLED.incrementAndGet() <= MAX_POOLED ) {
+            buf.clear();
+            POOL.offer(buf);
+        }
+        else {
+            // let the garbage collector free it
+            POOLED.decrementAndGet();
+        }
+    }
+
+    /** The size of each direct buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** The number of buffers written at once. */
+    private static final int GATHER_SIZE = 8;
+    /** The maximum number of buffers kept in the pool. */
+    private static final int MAX_POOLED  = 64;
+
+    private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final WritableByteChannel myChannel;
+    private final ByteBuffer[] myBuffers;
+    private int myCount = 0;
+    private boolean myClosed = false;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
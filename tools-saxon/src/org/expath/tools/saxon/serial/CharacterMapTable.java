@@ -0,0 +1,175 @@
+/****************************************************************************/
+/*  File:       CharacterMapTable.java                                      */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.serial;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.serialize.CharacterMap;
+import net.sf.saxon.tree.tiny.CompressedWhitespace;
+import net.sf.saxon.z.IntHashMap;
+import net.sf.saxon.z.IntIterator;
+import org.expath.tools.ToolsException;
+
+/**
+ * A character map compiled to a lookup table.
+ *
+ * The replacements of the BMP characters are in an array indexed by the
+ * character itself (up to the highest mapped one), and the replacements of
+ * the supplementary characters are in a hash map.  Strings with no mapped
+ * character are returned as is, after a single pass over them.
+ *
+ * @author Florent Georges
+ */
+final class CharacterMapTable
+        extends CharacterMap
+{
+    /**
+     * Compile the {@code use-character-maps} parameter.
+     *
+     * @param pairs Each mapped character followed by its replacement.  When
+     *     the same character is mapped several times, the last one wins.
+     */
+    public static CharacterMapTable compile(StructuredQName name, List<String> pairs)
+            throws ToolsException
+    {
+        IntHashMap<String> map = new IntHashMap<String>();
+        for ( Iterator<String> it = pairs.iterator(); it.hasNext(); ) {
+            String c = it.next();
+            String replacement = it.next();
+            if ( c == null || c.length() == 0 || c.codePointCount(0, c.length()) != 1 ) {
+                throw new ToolsException("A character map must map exactly one character: '" + c + "'");
+            }
+            if ( replacement == null ) {
+                throw new ToolsException("No replacement string in the character map for: '" + c + "'");
+            }
+            map.put(c.codePointAt(0), replacement);
+        }
+        return new CharacterMapTable(name, map);
+    }
+
+    private CharacterMapTable(StructuredQName name, IntHashMap<String> map)
+    {
+        super(name, map);
+        int max = -1;
+        for ( IntIterator it = map.keyIterator(); it.hasNext(); ) {
+            int c = it.next();
+            if ( c <= Character.MAX_VALUE && c > max ) {
+                max = c;
+            }
+        }
+        myBmp = new String[max + 1];
+        Map<Integer, String> supplementary = null;
+        for ( IntIterator it = map.keyIterator(); it.hasNext(); ) {
+            int c = it.next();
+            if ( c <= Character.MAX_VALUE ) {
+                myBmp[c] = map.get(c);
+            }
+            else {
+                if ( supplementary == null ) {
+                    supplementary = new HashMap<Integer, String>();
+                }
+                supplementary.put(c, map.get(c));
+            }
+        }
+        mySupplementary = supplementary;
+        myMapsWhitespace = isMapped(' ') || isMapped('\t') || isMapped('\n') || isMapped('\r');
+    }
+
+    @Override
+    public CharSequence map(CharSequence in, boolean insert_nulls)
+    {
+        if ( ! myMapsWhitespace && in instanceof CompressedWhitespace ) {
+            return in;
+        }
+        int len = in.length();
+        int i = 0;
+        while ( i < len && ! isMapped(in.charAt(i)) ) {
+            ++i;
+        }
+        if ( i == len ) {
+            return in;
+        }
+        StringBuilder buf = new StringBuilder(len + 16);
+        buf.append(in, 0, i);
+        for ( ; i < len; ++i ) {
+            char c = in.charAt(i);
+            String replacement = null;
+            if ( Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(in.charAt(i + 1)) ) {
+                char low = in.charAt(++i);
+                if ( mySupplementary != null ) {
+                    replacement = mySupplementary.get(Character.toCodePoint(c, low));
+                }
+                if ( replacement == null ) {
+                    buf.append(c);
+                    buf.append(low);
+                    continue;
+                }
+            }
+            else if ( c < myBmp.length ) {
+                replacement = myBmp[c];
+            }
+            if ( replacement == null ) {
+                buf.append(c);
+            }
+            else if ( insert_nulls ) {
+                // tells the emitter not to escape the replacement
+                buf.append('\u0000');
+                buf.append(replacement);
+                buf.append('\u0000');
+            }
+            else {
+                buf.append(replacement);
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Whether {@code c} is mapped, or is a high surrogate possibly starting a mapped character.
+     */
+    private boolean isMapped(char c)
+    {
+        // the surrogates first, the table can reach them if it maps U+E000 and above
+        if ( mySupplementary != null && Character.isHighSurrogate(c) ) {
+            return true;
+        }
+        return c < myBmp.length && myBmp[c] != null;
+    }
+
+    /** The BMP replacements, indexed by character, null if not mapped. */
+    private final String[] myBmp;
+    /** The supplementary characters replacements, null if there is none. */
+    private final Map<Integer, String> mySupplementary;
+    private final boolean myMapsWhitespace;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,418 @@
+/****************************************************************************/
+/*  File:       Compression.java                                            */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.serial;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compression format and level, to compress a serialization in-line.
+ *
+ * The gzip format can also be compressed in parallel, by blocks, on an
+ * executor.  Each block is then a complete gzip member, and the output is a
+ * multi-member gzip stream (see RFC 1952, section 2.2).  It is read by the
+ * gzip tools and by {@code GZIPInputStream}, but some decoders only read the
+ * first member.  Instances are immutable.
+ *
+ * @author Florent Georges
+ */
+public final class Compression
+{
+    public enum Format
+    {
+        /** The gzip format (RFC 1952). */
+        GZIP,
+        /** The zlib format (RFC 1950), used by the HTTP "deflate" content coding. */
+        DEFLATE
+    }
+
+    public static Compression gzip(int level)
+    {
+        return new Compression(Format.GZIP, level, null, 0);
+    }
+
+    public static Compression deflate(int level)
+    {
+        return new Compression(Format.DEFLATE, level, null, 0);
+    }
+
+    private Compression(Format format, int level, ExecutorService executor, int block_size)
+    {
+        if ( level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION ) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        myFormat = format;
+        myLevel = level;
+        myExecutor = executor;
+        myBlockSize = block_size;
+    }
+
+    /**
+     * The same compression, but by blocks of {@code block_size} bytes compressed in parallel.
+     *
+     * Only supported for gzip.  Worth it only for big outputs.
+     */
+    public Compression parallel(ExecutorService executor, int block_size)
+    {
+        if ( myFormat != Format.GZIP ) {
+            throw new IllegalArgumentException("Parallel compression is only supported for gzip");
+        }
+        if ( block_size <= 0 ) {
+            throw new IllegalArgumentException("The block size must be positive: " + block_size);
+        }
+        return new Compression(myFormat, myLevel, executor, block_size);
+    }
+
+    public Format getFormat()
+    {
+        return myFormat;
+    }
+
+    public int getLevel()
+    {
+        return myLevel;
+    }
+
+    /**
+     * Return a stream compressing to {@code out}.
+     *
+     * Closing the returned stream finishes the compression, but does not
+     * close {@code out}.
+     */
+    public OutputStream open(OutputStream out)
+            throws IOException
+    {
+        OutputStream target = new Unclosable(out);
+        if ( myExecutor != null ) {
+            return new ParallelGzipStream(target);
+        }
+        else if ( myFormat == Format.GZIP ) {
+            return new LevelGzipStream(target, myLevel);
+        }
+        else {
+            return new LevelDeflaterStream(target, new Deflater(myLevel));
+        }
+    }
+
+    /**
+     * Abandon a stream returned by {@link #open(OutputStream)}, after a failure.
+     *
+     * Releases its resources without finishing the compressed format, so a
+     * truncated output is not given a valid trailer (and checksum).  The
+     * stream cannot be used anymore.
+     */
+    public static void abort(OutputStream compressed)
+    {
+        if ( compressed instanceof Abortable ) {
+            ((Abortable) compressed).abort();
+        }
+    }
+
+    /**
+     * A compressing stream which can be abandoned without being finished.
+     */
+    private interface Abortable
+    {
+        public void abort();
+    }
+
+    /**
+     * Writes a complete gzip member, with the header and the trailer.
+     */
+    private static void gzipMember(byte[] data, int len, int level, ByteArrayOutputStream out)
+    {
+        out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, len);
+            deflater.finish();
+            byte[] buf = new byte[8192];
+            while ( ! deflater.finished() ) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+        }
+        finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, len);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, len);
+    }
+
+    /** Little endian, as in the gzip trailer. */
+    private static void writeInt(ByteArrayOutputStream out, int value)
+    {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    /**
+     * Leaves the underlying stream open, but flushes it.
+     */
+    private static class Unclosable
+            extends FilterOutputStream
+    {
+        public Unclosable(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            out.flush();
+        }
+    }
+
+    /**
+     * A gzip stream with a specific compression level.
+     */
+    private static class LevelGzipStream
+            extends GZIPOutputStream
+            implements Abortable
+    {
+        public LevelGzipStream(OutputStream out, int level)
+                throws IOException
+        {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+
+        @Override
+        public void abort()
+        {
+            def.end();
+        }
+    }
+
+    /**
+     * A deflater stream releasing its own deflater when closed.
+     */
+    private static class LevelDeflaterStream
+            extends DeflaterOutputStream
+            implements Abortable
+    {
+        public LevelDeflaterStream(OutputStream out, Deflater deflater)
+        {
+            super(out, deflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            try {
+                super.close();
+            }
+            finally {
+                def.end();
+            }
+        }
+
+        @Override
+        public void abort()
+        {
+            def.end();
+        }
+    }
+
+    /**
+     * Compresses each block in a gzip member on the executor, and writes them in order.
+     */
+    private class ParallelGzipStream
+            extends OutputStream
+            implements Abortable
+    {
+        public ParallelGzipStream(OutputStream out)
+        {
+            myOut = out;
+            myBlock = new byte[myBlockSize];
+            myMaxPending = 2 * Runtime.getRuntime().availableProcessors();
+        }
+
+        @Override
+        public void write(int b)
+                throws IOException
+        {
+            if ( myCount == myBlock.length ) {
+                submit();
+            }
+            myBlock[myCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            while ( len > 0 ) {
+                if ( myCount == myBlock.length ) {
+                    submit();
+                }
+                int n = Math.min(len, myBlock.length - myCount);
+                System.arraycopy(b, off, myBlock, myCount, n);
+                myCount += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            if ( myClosed ) {
+                return;
+            }
+            myClosed = true;
+            try {
+                if ( myCount > 0 || myTotal == 0 ) {
+                    // an empty input still gives an (empty) gzip member
+                    submit();
+                }
+                while ( ! myPending.isEmpty() ) {
+                    writeNext();
+                }
+                myOut.close();
+            }
+            finally {
+                for ( Future<ByteArrayOutputStream> f : myPending ) {
+                    f.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * The members already written are complete, so end with an unterminated one.
+         *
+         * Decoders then report the output as truncated, instead of reading
+         * the members before the failure as a complete stream.
+         */
+        @Override
+        public void abort()
+        {
+            if ( myClosed ) {
+                return;
+            }
+            myClosed = true;
+            for ( Future<ByteArrayOutputStream> f : myPending ) {
+                f.cancel(true);
+            }
+            myPending.clear();
+            if ( myTotal > 0 ) {
+                try {
+                    myOut.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+                    myOut.flush();
+                }
+                catch ( IOException ex ) {
+                    // the output is broken anyway
+                }
+            }
+        }
+
+        private void submit()
+                throws IOException
+        {
+            final byte[] data = myBlock;
+            final int len = myCount;
+            myPending.addLast(myExecutor.submit(new Callable<ByteArrayOutputStream>() {
+                @Override
+                public ByteArrayOutputStream call() {
+                    ByteArrayOutputStream member = new ByteArrayOutputStream(len / 2 + 64);
+                    gzipMember(data, len, myLevel, member);
+                    return member;
+                }
+            }));
+            ++myTotal;
+            myBlock = new byte[myBlockSize];
+            myCount = 0;
+            if ( myPending.size() >= myMaxPending ) {
+                writeNext();
+            }
+        }
+
+        private void writeNext()
+                throws IOException
+        {
+            Future<ByteArrayOutputStream> future = myPending.removeFirst();
+            try {
+                future.get().writeTo(myOut);
+            }
+            catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new IOException("Interrupted while compressing").initCause(ex);
+            }
+            catch ( ExecutionException ex ) {
+                throw (IOException) new IOException("Error compressing a block").initCause(ex.getCause());
+            }
+        }
+
+        private final OutputStream myOut;
+        private final int myMaxPending;
+        private final LinkedList<Future<ByteArrayOutputStream>> myPending
+                = new LinkedList<Future<ByteArrayOutputStream>>();
+        private byte[] myBlock;
+        private int myCount = 0;
+        private long myTotal = 0;
+        private boolean myClosed = false;
+    }
+
+    /** Magic number, deflate method, no flag, no time, no extra flag, unknown OS. */
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Format myFormat;
+    private final int myLevel;
+    private final ExecutorService myExecutor;
+    private final int myBlockSize;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,131 @@
+/****************************************************************************/
+/*  File:       FlushPolicy.java                                            */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.serial;
+
+/**
+ * When to flush the output while serializing a sequence.
+ *
+ * A policy flushes after each top-level item, every N bytes, every N
+ * milliseconds, or any combination of them (whichever comes first).  The
+ * output is flushed down to the target stream, so the bytes reach a client
+ * as soon as possible (e.g. with a chunked HTTP response).  The time is only
+ * checked when the serializer produces output, there is no timer thread.
+ * Instances are immutable.
+ *
+ * @author Florent Georges
+ */
+public final class FlushPolicy
+{
+    /** Flush only at the end of the serialization. */
+    public static final FlushPolicy NEVER = new FlushPolicy(false, 0, 0);
+
+    /** Flush after each top-level item of the sequence. */
+    public static FlushPolicy perItem()
+    {
+        return new FlushPolicy(true, 0, 0);
+    }
+
+    /**
+     * Flush each time {@code bytes} bytes have been output.
+     *
+     * The output is counted in characters before encoding, which is the
+     * number of bytes for ASCII in UTF-8, and for single-byte encodings.
+     */
+    public static FlushPolicy everyBytes(long bytes)
+    {
+        if ( bytes <= 0 ) {
+            throw new IllegalArgumentException("The number of bytes must be positive: " + bytes);
+        }
+        return new FlushPolicy(false, bytes, 0);
+    }
+
+    /** Flush when output is produced, if the last flush is older than {@code millis}. */
+    public static FlushPolicy everyMillis(long millis)
+    {
+        if ( millis <= 0 ) {
+            throw new IllegalArgumentException("The delay must be positive: " + millis);
+        }
+        return new FlushPolicy(false, 0, millis);
+    }
+
+    private FlushPolicy(boolean per_item, long bytes, long millis)
+    {
+        myPerItem = per_item;
+        myBytes = bytes;
+        myMillis = millis;
+    }
+
+    /**
+     * Combine two policies, flushing as soon as either one would.
+     */
+    public FlushPolicy or(FlushPolicy other)
+    {
+        return new FlushPolicy(
+                myPerItem || other.myPerItem,
+                min(myBytes, other.myBytes),
+                min(myMillis, other.myMillis));
+    }
+
+    public boolean isPerItem()
+    {
+        return myPerItem;
+    }
+
+    /** The number of bytes between flushes, or 0. */
+    public long getBytes()
+    {
+        return myBytes;
+    }
+
+    /** The maximum delay between flushes, or 0. */
+    public long getMillis()
+    {
+        return myMillis;
+    }
+
+    /** The minimum of two thresholds, 0 meaning none. */
+    private static long min(long a, long b)
+    {
+        if ( a == 0 ) {
+            return b;
+        }
+        else if ( b == 0 ) {
+            return a;
+        }
+        else {
+            return Math.min(a, b);
+        }
+    }
+
+    private final boolean myPerItem;
+    private final long myBytes;
+    private final long myMillis;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
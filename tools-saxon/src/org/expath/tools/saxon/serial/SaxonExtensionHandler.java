@@ -10,6 +10,8 @@
 
 package org.expath.tools.saxon.serial;
 
+import java.util.HashMap;
+import java.util.Map;
 import javax.xml.namespace.QName;
 import org.expath.tools.ToolsException;
 import org.expath.tools.serial.ExtensionHandler;
@@ -17,6 +19,9 @@ import org.expath.tools.serial.ExtensionHandler;
 /**
  * Handler for extension serialization parameters.
  * 
+ * The parameters are looked up in a static index, from their name to their
+ * position in the array of values.
+ * 
  * @author Florent Georges
  */
 public class SaxonExtensionHandler
@@ -26,119 +31,26 @@ public class SaxonExtensionHandler
     public String getExtension(QName name)
             throws ToolsException
     {
-        if ( name.equals(ATTRIBUTE_ORDER) ) {
-            return myAttributeOrder;
-        }
-        else if ( name.equals(CHARACTER_REPRESENTATION) ) {
-            return myCharacterRepresentation;
-        }
-        else if ( name.equals(DOUBLE_SPACE) ) {
-            return myDoubleSpace;
-        }
-        else if ( name.equals(IMPLICIT_RESULT_DOCUMENT) ) {
-            return myImplicitResultDocument;
-        }
-        else if ( name.equals(INDENT_SPACES) ) {
-            return myIndentSpaces;
-        }
-        else if ( name.equals(LINE_LENGTH) ) {
-            return myLineLength;
-        }
-        else if ( name.equals(NEXT_IN_CHAIN) ) {
-            return myNextInChain;
-        }
-        else if ( name.equals(NEXT_IN_CHAIN_BASE_URI) ) {
-            return myNextInChainBaseUri;
-        }
-        else if ( name.equals(RECOGNIZE_BINARY) ) {
-            return myRecognizeBinary;
-        }
-        else if ( name.equals(REQUIRE_WELL_FORMED) ) {
-            return myRequireWellFormed;
-        }
-        else if ( name.equals(STYLESHEET_VERSION) ) {
-            return myStylesheetVersion;
-        }
-        else if ( name.equals(SUPPLY_SOURCE_LOCATOR) ) {
-            return mySupplySourceLocator;
-        }
-        else if ( name.equals(SUPPRESS_INDENTATION) ) {
-            return mySuppressIndentation;
-        }
-        else if ( name.equals(WRAP) ) {
-            return myWrap;
-        }
-        else {
-            throw new ToolsException("Unknown Saxon extension serialization parameter: " + name);
-        }
+        return myValues[index(name)];
     }
 
     @Override
     public void setExtension(QName name, String value)
             throws ToolsException
     {
-        if ( name.equals(ATTRIBUTE_ORDER) ) {
-            myAttributeOrder = value;
-        }
-        else if ( name.equals(CHARACTER_REPRESENTATION) ) {
-            myCharacterRepresentation = value;
-        }
-        else if ( name.equals(DOUBLE_SPACE) ) {
-            myDoubleSpace = value;
-        }
-        else if ( name.equals(IMPLICIT_RESULT_DOCUMENT) ) {
-            myImplicitResultDocument = value;
-        }
-        else if ( name.equals(INDENT_SPACES) ) {
-            myIndentSpaces = value;
-        }
-        else if ( name.equals(LINE_LENGTH) ) {
-            myLineLength = value;
-        }
-        else if ( name.equals(NEXT_IN_CHAIN) ) {
-            myNextInChain = value;
-        }
-        else if ( name.equals(NEXT_IN_CHAIN_BASE_URI) ) {
-            myNextInChainBaseUri = value;
-        }
-        else if ( name.equals(RECOGNIZE_BINARY) ) {
-            myRecognizeBinary = value;
-        }
-        else if ( name.equals(REQUIRE_WELL_FORMED) ) {
-            myRequireWellFormed = value;
-        }
-        else if ( name.equals(STYLESHEET_VERSION) ) {
-            myStylesheetVersion = value;
-        }
-        else if ( name.equals(SUPPLY_SOURCE_LOCATOR) ) {
-            mySupplySourceLocator = value;
-        }
-        else if ( name.equals(SUPPRESS_INDENTATION) ) {
-            mySuppressIndentation = value;
-        }
-        else if ( name.equals(WRAP) ) {
-            myWrap = value;
-        }
-        else {
+        myValues[index(name)] = value;
+    }
+
+    private static int index(QName name)
+            throws ToolsException
+    {
+        Integer idx = INDEX.get(name);
+        if ( idx == null ) {
             throw new ToolsException("Unknown Saxon extension serialization parameter: " + name);
         }
+        return idx;
     }
 
-    private String myAttributeOrder;
-    private String myCharacterRepresentation;
-    private String myDoubleSpace;
-    private String myImplicitResultDocument;
-    private String myIndentSpaces;
-    private String myLineLength;
-    private String myNextInChain;
-    private String myNextInChainBaseUri;
-    private String myRecognizeBinary;
-    private String myRequireWellFormed;
-    private String myStylesheetVersion;
-    private String mySupplySourceLocator;
-    private String mySuppressIndentation;
-    private String myWrap;
-
     /**
      * The Saxon namespace (to declare extension output properties on web:body).
      * 
@@ -146,20 +58,34 @@ public class SaxonExtensionHandler
      */
     private static final String NS = "http://saxon.sf.net/";
 
-    private static final QName ATTRIBUTE_ORDER          = new QName(NS, "saxon:attribute-order");
-    private static final QName CHARACTER_REPRESENTATION = new QName(NS, "saxon:character-representation");
-    private static final QName DOUBLE_SPACE             = new QName(NS, "saxon:double-space");
-    private static final QName IMPLICIT_RESULT_DOCUMENT = new QName(NS, "saxon:implicit-result-document");
-    private static final QName INDENT_SPACES            = new QName(NS, "saxon:indent-spaces");
-    private static final QName LINE_LENGTH              = new QName(NS, "saxon:line-length");
-    private static final QName NEXT_IN_CHAIN            = new QName(NS, "saxon:next-in-chain");
-    private static final QName NEXT_IN_CHAIN_BASE_URI   = new QName(NS, "saxon:next-in-chain-base-uri");
-    private static final QName RECOGNIZE_BINARY         = new QName(NS, "saxon:recognize-binary");
-    private static final QName REQUIRE_WELL_FORMED      = new QName(NS, "saxon:require-well-formed");
-    private static final QName STYLESHEET_VERSION       = new QName(NS, "saxon:stylesheet-version");
-    private static final QName SUPPLY_SOURCE_LOCATOR    = new QName(NS, "saxon:supply-source-locator");
-    private static final QName SUPPRESS_INDENTATION     = new QName(NS, "saxon:suppress-indentation");
-    private static final QName WRAP                     = new QName(NS, "saxon:wrap"); 
+    /** The names of the supported extension parameters. */
+    private static final String[] NAMES = {
+        "attribute-order",
+        "character-representation",
+        "double-space",
+        "implicit-result-document",
+        "indent-spaces",
+        "line-length",
+        "next-in-chain",
+        "next-in-chain-base-uri",
+        "recognize-binary",
+        "require-well-formed",
+        "stylesheet-version",
+        "supply-source-locator",
+        "suppress-indentation",
+        "wrap-result-sequence"
+    };
+
+    private static final Map<QName, Integer> INDEX = new HashMap<QName, Integer>();
+    static {
+        for ( int i = 0; i < NAMES.length; ++i ) {
+            INDEX.put(new QName(NS, NAMES[i], "saxon"), i);
+        }
+        // the short name, accepted before, for the name of the Saxon output property
+        INDEX.put(new QName(NS, "wrap", "saxon"), INDEX.get(new QName(NS, "wrap-result-sequence")));
+    }
+
+    private final String[] myValues = new String[NAMES.length];
 }
 
 
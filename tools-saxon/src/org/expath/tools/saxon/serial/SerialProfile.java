@@ -0,0 +1,393 @@
+/****************************************************************************/
+/*  File:       SerialProfile.java                                          */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.serial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.namespace.QName;
+import javax.xml.transform.OutputKeys;
+import net.sf.saxon.lib.SaxonOutputKeys;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.serialize.CharacterMapIndex;
+import org.expath.tools.ToolsException;
+import org.expath.tools.serial.SerialParameters;
+
+/**
+ * Serialization parameters, compiled to the Saxon output properties.
+ *
+ * A profile is compiled once for all the {@link SerialParameters} with the
+ * same content (including the Saxon extension parameters and the character
+ * maps), and cached.  The cache saves building the output properties and
+ * the character maps, but {@link #compile(SerialParameters)} still reads all
+ * the parameters to look it up.  To skip that too, keep the profile and pass
+ * it to the methods taking a profile (e.g. in {@code SaxonSequence}).  The
+ * compiled output properties are read-only, and profiles can be shared
+ * between threads.
+ *
+ * @author Florent Georges
+ */
+public final class SerialProfile
+{
+    /** The profile for no parameters at all. */
+    public static final SerialProfile DEFAULT = new SerialProfile(new Properties(), null);
+
+    /**
+     * Return the profile for {@code params}, from the cache if possible.
+     *
+     * @param params The parameters, can be null for {@link #DEFAULT}.
+     */
+    public static SerialProfile compile(SerialParameters params)
+            throws ToolsException
+    {
+        if ( params == null ) {
+            return DEFAULT;
+        }
+        Key key = new Key(params);
+        SerialProfile profile = CACHE.get(key);
+        if ( profile == null ) {
+            Properties props = makeOutputProperties(key);
+            profile = new SerialProfile(props, makeCharacterMaps(key, props));
+            if ( CACHE.size() >= MAX_PROFILES ) {
+                // the same few profiles are typically used over and over, keep it simple
+                CACHE.clear();
+            }
+            CACHE.put(key, profile);
+        }
+        return profile;
+    }
+
+    private SerialProfile(Properties props, CharacterMapIndex maps)
+    {
+        myProps = new ReadOnlyProperties(props);
+        myMaps = maps;
+    }
+
+    /**
+     * The output properties, read-only.
+     */
+    public Properties getOutputProperties()
+    {
+        return myProps;
+    }
+
+    /**
+     * The compiled character maps, or null if there is none.
+     *
+     * When not null, it must be passed to the Saxon serializer factory along
+     * with the output properties, which refer to it.
+     */
+    public CharacterMapIndex getCharacterMaps()
+    {
+        return myMaps;
+    }
+
+    private static Properties makeOutputProperties(Key key)
+            throws ToolsException
+    {
+        Properties props = new Properties();
+        for ( int i = 0; i < OUTPUT_KEYS.length; ++i ) {
+            Object value = key.values[i];
+            if ( value != null ) {
+                props.setProperty(OUTPUT_KEYS[i], format(value));
+            }
+        }
+        for ( int i = 0; i < EXTENSION_KEYS.length; ++i ) {
+            Object value = key.values[OUTPUT_KEYS.length + 1 + i];
+            if ( value != null ) {
+                props.setProperty(EXTENSION_KEYS[i], (String) value);
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Compile all the character maps in a single one, referred to by {@code props}.
+     */
+    @SuppressWarnings("unchecked")
+    private static CharacterMapIndex makeCharacterMaps(Key key, Properties props)
+            throws ToolsException
+    {
+        List<String> pairs = (List<String>) key.values[OUTPUT_KEYS.length];
+        if ( pairs == null || pairs.isEmpty() ) {
+            return null;
+        }
+        CharacterMapIndex index = new CharacterMapIndex();
+        index.putCharacterMap(CHARACTER_MAP_NAME, CharacterMapTable.compile(CHARACTER_MAP_NAME, pairs));
+        props.setProperty(SaxonOutputKeys.USE_CHARACTER_MAPS, CHARACTER_MAP_NAME.getClarkName());
+        return index;
+    }
+
+    private static String format(Object value)
+            throws ToolsException
+    {
+        if ( value instanceof String ) {
+            return (String) value;
+        }
+        else if ( value instanceof Boolean ) {
+            return (Boolean) value ? "yes" : "no";
+        }
+        else if ( value instanceof SerialParameters.Standalone ) {
+            switch ( (SerialParameters.Standalone) value ) {
+                case YES:
+                    return "yes";
+                case NO:
+                    return "no";
+                case OMIT:
+                    return "omit";
+                default:
+                    throw new ToolsException("Invalid Standalone value: " + value);
+            }
+        }
+        else if ( value instanceof QName ) {
+            return noNamespaceName((QName) value);
+        }
+        else {
+            StringBuilder buf = new StringBuilder();
+            for ( Object qname : (List<?>) value ) {
+                buf.append(noNamespaceName((QName) qname));
+                buf.append(" ");
+            }
+            return buf.toString();
+        }
+    }
+
+    private static String noNamespaceName(QName value)
+            throws ToolsException
+    {
+        if ( value.getNamespaceURI() != null && ! value.getNamespaceURI().equals("") ) {
+            throw new ToolsException(
+                    "A QName with a non-null namespace not supported as a serialization param: {"
+                            + value.getNamespaceURI() + "}" + value.getLocalPart());
+        }
+        return value.getLocalPart();
+    }
+
+    private static QName parseClarkNotation(String clark)
+    {
+        if ( clark.startsWith("{") ) {
+            int idx = clark.indexOf('}');
+            String uri = clark.substring(1, idx);
+            String local = clark.substring(idx + 1);
+            return new QName(uri, local);
+        }
+        else {
+            return new QName(clark);
+        }
+    }
+
+    /**
+     * The content of some serialization parameters, to look up the cache.
+     *
+     * The values are in the order of {@link #OUTPUT_KEYS}, then the character
+     * maps, then the values in the order of {@link #EXTENSION_KEYS}.  Lists
+     * of QNames are copied, so the key does not change with the parameters.
+     */
+    private static final class Key
+    {
+        public Key(SerialParameters params)
+                throws ToolsException
+        {
+            values = new Object[OUTPUT_KEYS.length + 1 + EXTENSION_NAMES.length];
+            int i = 0;
+            values[i++] = params.getMethod();
+            values[i++] = params.getMediaType();
+            values[i++] = params.getEncoding();
+            values[i++] = copy(params.getCdataSectionElements());
+            values[i++] = params.getDoctypePublic();
+            values[i++] = params.getDoctypeSystem();
+            values[i++] = params.getIndent();
+            values[i++] = params.getOmitXmlDeclaration();
+            values[i++] = params.getStandalone();
+            values[i++] = params.getVersion();
+            values[i++] = params.getByteOrderMark();
+            values[i++] = params.getEscapeUriAttributes();
+            values[i++] = params.getIncludeContentType();
+            values[i++] = params.getNormalizationForm();
+            values[i++] = params.getUndeclarePrefixes();
+            values[i++] = maps(params.getUseCharacterMaps());
+            for ( QName name : EXTENSION_NAMES ) {
+                values[i++] = params.getExtension(name);
+            }
+            hash = Arrays.hashCode(values);
+        }
+
+
+        private static List<QName> copy(Iterable<QName> names)
+        {
+            if ( names == null ) {
+                return null;
+            }
+            List<QName> list = new ArrayList<QName>();
+            for ( QName n : names ) {
+                list.add(n);
+            }
+            return list;
+        }
+
+        private static List<String> maps(Iterable<SerialParameters.UseChar> maps)
+        {
+            if ( maps == null ) {
+                return null;
+            }
+            List<String> list = new ArrayList<String>();
+            for ( SerialParameters.UseChar m : maps ) {
+                list.add(m.character);
+                list.add(m.stringMap);
+            }
+            return list;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if ( ! (obj instanceof Key) ) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public final Object[] values;
+        private final int hash;
+    }
+
+    /**
+     * Properties throwing an exception on any modification.
+     */
+    private static final class ReadOnlyProperties
+            extends Properties
+    {
+        public ReadOnlyProperties(Properties props)
+        {
+            for ( Map.Entry<Object, Object> e : props.entrySet() ) {
+                super.put(e.getKey(), e.getValue());
+            }
+        }
+
+        @Override
+        public synchronized Object put(Object key, Object value)
+        {
+            throw new UnsupportedOperationException("Compiled output properties are read-only");
+        }
+
+        @Override
+        public synchronized Object remove(Object key)
+        {
+            throw new UnsupportedOperationException("Compiled output properties are read-only");
+        }
+
+        @Override
+        public synchronized void putAll(Map<? extends Object, ? extends Object> t)
+        {
+            throw new UnsupportedOperationException("Compiled output properties are read-only");
+        }
+
+        @Override
+        public synchronized void clear()
+        {
+            throw new UnsupportedOperationException("Compiled output properties are read-only");
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** The standard output keys, in the order of the key values. */
+    private static final String[] OUTPUT_KEYS = {
+        OutputKeys.METHOD,
+        OutputKeys.MEDIA_TYPE,
+        OutputKeys.ENCODING,
+        OutputKeys.CDATA_SECTION_ELEMENTS,
+        OutputKeys.DOCTYPE_PUBLIC,
+        OutputKeys.DOCTYPE_SYSTEM,
+        OutputKeys.INDENT,
+        OutputKeys.OMIT_XML_DECLARATION,
+        OutputKeys.STANDALONE,
+        OutputKeys.VERSION,
+        SaxonOutputKeys.BYTE_ORDER_MARK,
+        SaxonOutputKeys.ESCAPE_URI_ATTRIBUTES,
+        SaxonOutputKeys.INCLUDE_CONTENT_TYPE,
+        SaxonOutputKeys.NORMALIZATION_FORM,
+        SaxonOutputKeys.UNDECLARE_PREFIXES
+    };
+
+    private static final String SAXON_NS = "http://saxon.sf.net/";
+
+    /** The Saxon extension output keys, in Clark notation. */
+    private static final String[] EXTENSION_KEYS = {
+        SaxonOutputKeys.CHARACTER_REPRESENTATION,
+        SaxonOutputKeys.DOUBLE_SPACE,
+        SaxonOutputKeys.INDENT_SPACES,
+        SaxonOutputKeys.LINE_LENGTH,
+        SaxonOutputKeys.RECOGNIZE_BINARY,
+        SaxonOutputKeys.REQUIRE_WELL_FORMED,
+        SaxonOutputKeys.STYLESHEET_VERSION,
+        SaxonOutputKeys.SUPPRESS_INDENTATION,
+        SaxonOutputKeys.WRAP
+    };
+
+    /**
+     * The names of the extension parameters, parsed once for all.
+     *
+     * Some Saxon output keys are not in the Saxon namespace (e.g.
+     * suppress-indentation, standard in XSLT 3.0), but they are still set as
+     * extension parameters in the Saxon namespace.
+     */
+    private static final QName[] EXTENSION_NAMES = new QName[EXTENSION_KEYS.length];
+    static {
+        for ( int i = 0; i < EXTENSION_KEYS.length; ++i ) {
+            QName name = parseClarkNotation(EXTENSION_KEYS[i]);
+            if ( "".equals(name.getNamespaceURI()) ) {
+                name = new QName(SAXON_NS, name.getLocalPart());
+            }
+            EXTENSION_NAMES[i] = name;
+        }
+    }
+
+    /** The name of the character map compiled from the parameters. */
+    private static final StructuredQName CHARACTER_MAP_NAME
+            = new StructuredQName("", "http://expath.org/ns/tools/saxon", "character-map");
+
+    private static final int MAX_PROFILES = 128;
+    private static final Map<Key, SerialProfile> CACHE = new ConcurrentHashMap<Key, SerialProfile>();
+
+    private final Properties myProps;
+    private final CharacterMapIndex myMaps;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,264 @@
+/****************************************************************************/
+/*  File:       SerialPublisher.java                                        */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.serial;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import org.expath.tools.ToolsException;
+import org.expath.tools.model.Sequence;
+import org.expath.tools.serial.SerialParameters;
+
+/**
+ * Publish the serialization of a sequence as chunks of bytes, on demand.
+ *
+ * The interfaces {@link Subscriber} and {@link Subscription} follow the
+ * contract of {@code java.util.concurrent.Flow} (Reactive Streams), which is
+ * not available on all the Java versions supported here, so they are easy to
+ * adapt to it.  The sequence is serialized on the executor, and the
+ * serialization blocks as long as the subscriber has not requested more
+ * chunks.  So a slow consumer throttles the serialization, instead of the
+ * output being buffered.  Cancelling the subscription aborts the
+ * serialization and releases the executor thread.
+ *
+ * The sequence is serialized once, so a publisher accepts one subscriber
+ * only.  The subscriber is signalled on the executor thread.
+ *
+ * @author Florent Georges
+ */
+public class SerialPublisher
+{
+    /**
+     * The receiver of the chunks, as {@code Flow.Subscriber<ByteBuffer>}.
+     */
+    public interface Subscriber
+    {
+        public void onSubscribe(Subscription subscription);
+        /** Each buffer is a new one, ready to be read, and owned by the subscriber. */
+        public void onNext(ByteBuffer chunk);
+        public void onError(Throwable error);
+        public void onComplete();
+    }
+
+    /**
+     * The link between the publisher and its subscriber, as {@code Flow.Subscription}.
+     */
+    public interface Subscription
+    {
+        public void request(long n);
+        public void cancel();
+    }
+
+    public SerialPublisher(Sequence sequence, SerialParameters params, Executor executor)
+    {
+        this(sequence, params, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunk_size The size of each chunk of bytes (but the last one).
+     */
+    public SerialPublisher(Sequence sequence, SerialParameters params, Executor executor, int chunk_size)
+    {
+        if ( chunk_size <= 0 ) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunk_size);
+        }
+        mySequence = sequence;
+        myParams = params;
+        myExecutor = executor;
+        myChunkSize = chunk_size;
+    }
+
+    /**
+     * Subscribe to the serialization, starting it on the executor.
+     */
+    public void subscribe(Subscriber subscriber)
+    {
+        if ( subscriber == null ) {
+            throw new NullPointerException("The subscriber is null");
+        }
+        synchronized ( this ) {
+            if ( mySubscribed ) {
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("The sequence has already been subscribed to"));
+                return;
+            }
+            mySubscribed = true;
+        }
+        final Pipeline pipeline = new Pipeline(subscriber);
+        subscriber.onSubscribe(pipeline);
+        myExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.run();
+            }
+        });
+    }
+
+    /**
+     * The subscription, and the output stream blocking on the demand.
+     */
+    private class Pipeline
+            extends OutputStream
+            implements Subscription
+    {
+        public Pipeline(Subscriber subscriber)
+        {
+            mySubscriber = subscriber;
+            myChunk = ByteBuffer.allocate(myChunkSize);
+        }
+
+        @Override
+        public synchronized void request(long n)
+        {
+            if ( n <= 0 ) {
+                myFailure = new IllegalArgumentException("The number of requested chunks must be positive: " + n);
+                myCancelled = true;
+            }
+            else {
+                myDemand = myDemand + n < 0 ? Long.MAX_VALUE : myDemand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel()
+        {
+            myCancelled = true;
+            notifyAll();
+        }
+
+        public void run()
+        {
+            try {
+                mySequence.serialize(this, myParams);
+                if ( myChunk.position() > 0 ) {
+                    emit();
+                }
+                mySubscriber.onComplete();
+            }
+            catch ( ToolsException ex ) {
+                failed(ex);
+            }
+            catch ( IOException ex ) {
+                failed(ex);
+            }
+            catch ( RuntimeException ex ) {
+                failed(ex);
+            }
+        }
+
+        private void failed(Exception ex)
+        {
+            Throwable failure;
+            synchronized ( this ) {
+                if ( myCancelled && myFailure == null ) {
+                    // cancelled by the subscriber, which must not be signalled anymore
+                    return;
+                }
+                failure = myFailure == null ? ex : myFailure;
+            }
+            mySubscriber.onError(failure);
+        }
+
+        @Override
+        public void write(int b)
+                throws IOException
+        {
+            if ( ! myChunk.hasRemaining() ) {
+                emit();
+            }
+            myChunk.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            while ( len > 0 ) {
+                if ( ! myChunk.hasRemaining() ) {
+                    emit();
+                }
+                int n = Math.min(len, myChunk.remaining());
+                myChunk.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Wait for some demand, then send the current chunk.
+         */
+        private void emit()
+                throws IOException
+        {
+            synchronized ( this ) {
+                while ( myDemand == 0 && ! myCancelled ) {
+                    try {
+                        wait();
+                    }
+                    catch ( InterruptedException ex ) {
+                        Thread.currentThread().interrupt();
+                        myCancelled = true;
+                    }
+                }
+                if ( myCancelled ) {
+                    throw new IOException("The serialization has been cancelled");
+                }
+                --myDemand;
+            }
+            myChunk.flip();
+            mySubscriber.onNext(myChunk);
+            myChunk = ByteBuffer.allocate(myChunkSize);
+        }
+
+        private final Subscriber mySubscriber;
+        private ByteBuffer myChunk;
+        private long myDemand = 0;
+        private boolean myCancelled = false;
+        private Exception myFailure;
+    }
+
+    private static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private final Sequence mySequence;
+    private final SerialParameters myParams;
+    private final Executor myExecutor;
+    private final int myChunkSize;
+    private boolean mySubscribed = false;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */
@@ -0,0 +1,211 @@
+/****************************************************************************/
+/*  File:       TeeOutputStream.java                                        */
+/*  Author:     F. Georges - H2O Consulting                                 */
+/*  Date:       2026-10-17                                                  */
+/*  Tags:                                                                   */
+/*      Copyright (c) 2026 Florent Georges (see end of file.)               */
+/* ------------------------------------------------------------------------ */
+
+
+package org.expath.tools.saxon.serial;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * An output stream writing to several sinks, and computing digests on the way.
+ *
+ * The digests are named by their {@link MessageDigest} algorithm (e.g.
+ * {@code SHA-256} or {@code MD5}), or are one of the checksums {@code CRC32}
+ * and {@code Adler32}.  Closing the stream closes none of the sinks, but
+ * flushes them.  Instances are not thread-safe.
+ *
+ * @author Florent Georges
+ */
+public class TeeOutputStream
+        extends OutputStream
+{
+    /**
+     * @param sinks The streams to write to (can be empty, to compute digests only).
+     * @param digests The names of the digests to compute (can be empty).
+     * @throws NoSuchAlgorithmException If a digest is not supported.
+     */
+    public TeeOutputStream(OutputStream[] sinks, String[] digests)
+            throws NoSuchAlgorithmException
+    {
+        mySinks = sinks.clone();
+        myNames = digests.clone();
+        myDigests = new MessageDigest[digests.length];
+        myChecksums = new Checksum[digests.length];
+        for ( int i = 0; i < digests.length; ++i ) {
+            if ( CRC32_NAME.equalsIgnoreCase(digests[i]) ) {
+                myChecksums[i] = new CRC32();
+            }
+            else if ( ADLER32_NAME.equalsIgnoreCase(digests[i]) ) {
+                myChecksums[i] = new Adler32();
+            }
+            else {
+                myDigests[i] = MessageDigest.getInstance(digests[i]);
+            }
+        }
+    }
+
+    @Override
+    public void write(int b)
+            throws IOException
+    {
+        for ( OutputStream sink : mySinks ) {
+            sink.write(b);
+        }
+        for ( int i = 0; i < myNames.length; ++i ) {
+            if ( myDigests[i] != null ) {
+                myDigests[i].update((byte) b);
+            }
+            else {
+                myChecksums[i].update(b);
+            }
+        }
+        ++myCount;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+            throws IOException
+    {
+        for ( OutputStream sink : mySinks ) {
+            sink.write(b, off, len);
+        }
+        for ( int i = 0; i < myNames.length; ++i ) {
+            if ( myDigests[i] != null ) {
+                myDigests[i].update(b, off, len);
+            }
+            else {
+                myChecksums[i].update(b, off, len);
+            }
+        }
+        myCount += len;
+    }
+
+    @Override
+    public void flush()
+            throws IOException
+    {
+        for ( OutputStream sink : mySinks ) {
+            sink.flush();
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        flush();
+    }
+
+    /**
+     * Return the byte count and the digests of everything written so far.
+     *
+     * This completes the digests, so it must be called once, at the end.
+     */
+    public Result getResult()
+    {
+        Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+        for ( int i = 0; i < myNames.length; ++i ) {
+            if ( myDigests[i] != null ) {
+                digests.put(myNames[i], myDigests[i].digest());
+            }
+            else {
+                long value = myChecksums[i].getValue();
+                digests.put(myNames[i], new byte[] {
+                    (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+                });
+            }
+        }
+        return new Result(myCount, digests);
+    }
+
+    /**
+     * The number of bytes written, and the digests of those bytes.
+     */
+    public static class Result
+    {
+        private Result(long count, Map<String, byte[]> digests)
+        {
+            myCount = count;
+            myDigests = digests;
+        }
+
+        public long getByteCount()
+        {
+            return myCount;
+        }
+
+        /**
+         * Return a digest value (checksums are 4 bytes, big endian), or null if not computed.
+         */
+        public byte[] getDigest(String name)
+        {
+            byte[] value = myDigests.get(name);
+            return value == null ? null : value.clone();
+        }
+
+        /**
+         * Return a digest value in lower case hexadecimal (e.g. for an ETag), or null.
+         */
+        public String getDigestHex(String name)
+        {
+            byte[] value = myDigests.get(name);
+            if ( value == null ) {
+                return null;
+            }
+            StringBuilder buf = new StringBuilder(value.length * 2);
+            for ( byte b : value ) {
+                buf.append(HEX[(b >> 4) & 0xf]);
+                buf.append(HEX[b & 0xf]);
+            }
+            return buf.toString();
+        }
+
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private final long myCount;
+        private final Map<String, byte[]> myDigests;
+    }
+
+    private static final String CRC32_NAME   = "CRC32";
+    private static final String ADLER32_NAME = "Adler32";
+
+    private final OutputStream[]  mySinks;
+    private final String[]        myNames;
+    private final MessageDigest[] myDigests;
+    private final Checksum[]      myChecksums;
+    private long myCount = 0;
+}
+
+
+/* ------------------------------------------------------------------------ */
+/*  DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS COMMENT.               */
+/*                                                                          */
+/*  The contents of this file are subject to the Mozilla Public License     */
+/*  Version 1.0 (the "License"); you may not use this file except in        */
+/*  compliance with the License. You may obtain a copy of the License at    */
+/*  http://www.mozilla.org/MPL/.                                            */
+/*                                                                          */
+/*  Software distributed under the License is distributed on an "AS IS"     */
+/*  basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.  See    */
+/*  the License for the specific language governing rights and limitations  */
+/*  under the License.                                                      */
+/*                                                                          */
+/*  The Original Code is: all this file.                                    */
+/*                                                                          */
+/*  The Initial Developer of the Original Code is Florent Georges.          */
+/*                                                                          */
+/*  Contributor(s): none.                                                   */
+/* ------------------------------------------------------------------------ */